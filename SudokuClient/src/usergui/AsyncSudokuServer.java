@@ -0,0 +1,139 @@
+package usergui;
+
+import common.Board;
+import common.LevelType;
+import common.User;
+import javafx.application.Platform;
+import server.SudokuServerInterface;
+
+import java.rmi.RemoteException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * SudokuClient/usergui: AsyncSudokuServer.java
+ * Calls the server in the background, so that the GUI does not freeze while waiting for the network
+ */
+public class AsyncSudokuServer {
+    /**
+     * AsyncSudokuServer has:
+     *  - server - reference to the server interface, which is called only by the executor's threads
+     *  - executor - daemon threads for calls to the server
+     *  - prefetched - next game of each level, requested while the user plays the current one;
+     *    used only by the JavaFX thread. The server measures the time of solving from startGame,
+     *    so the time a game waits here is not counted
+     */
+    private final SudokuServerInterface server;
+    private final ExecutorService executor;
+    private final Map<LevelType, CompletableFuture<Board>> prefetched;
+
+    public AsyncSudokuServer(SudokuServerInterface server) {
+        this.server = server;
+
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "sudoku-server-call-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        prefetched = new EnumMap<>(LevelType.class);
+    }
+
+    /**
+     * Gives the game of the level, which was requested in advance, or requests it now;
+     * then the following game of the level is requested in advance
+     * @param level difficulty level of the game
+     * @return future, which completes with Board of the new game
+     */
+    public CompletableFuture<Board> nextGame(LevelType level) {
+        CompletableFuture<Board> game = prefetched.remove(level);
+        if(game == null || game.isCompletedExceptionally())
+            game = call(() -> server.generateSudoku(level));
+
+        prefetch(level);
+        return game;
+    }
+
+    /**
+     * Requests a game of the level in advance, if it is not requested yet
+     * @param level
+     */
+    public void prefetch(LevelType level) {
+        CompletableFuture<Board> game = prefetched.get(level);
+        if(game == null || game.isCompletedExceptionally())
+            prefetched.put(level, call(() -> server.generateSudoku(level)));
+    }
+
+    public CompletableFuture<Boolean> startGame(long gameId) {
+        return call(() -> server.startGame(gameId));
+    }
+
+    public CompletableFuture<Boolean> isSolution(long gameId, byte[] packedAnswer) {
+        return call(() -> server.isSolution(gameId, packedAnswer));
+    }
+
+    public CompletableFuture<Boolean> submitTime(long gameId, String username, byte[] packedAnswer) {
+        return call(() -> server.submitTime(gameId, username, packedAnswer));
+    }
+
+    public CompletableFuture<Board> showSolution(long gameId) {
+        return call(() -> server.showSolution(gameId));
+    }
+
+    public CompletableFuture<Void> recordStatistics(User user) {
+        return call(() -> {
+            server.recordStatistics(user);
+            return null;
+        });
+    }
+
+    /**
+     * Runs the action with the result on the JavaFX thread: at once, if the future is completed already
+     * and it is called from the JavaFX thread, else through Platform.runLater
+     * @param future
+     * @param action gets the result, or the error (RemoteException) if the call failed
+     */
+    public static <T> void onFxThread(CompletableFuture<T> future, BiConsumer<T, Throwable> action) {
+        future.whenComplete((result, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+
+            if(Platform.isFxApplicationThread())
+                action.accept(result, cause);
+            else
+                Platform.runLater(() -> action.accept(result, cause));
+        });
+    }
+
+    /**
+     * Stops the threads; calls, which are running, are not waited for
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> call(RemoteCall<T> remoteCall) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return remoteCall.call();
+            }
+            catch(RemoteException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Call of a method of the server
+     */
+    @FunctionalInterface
+    private interface RemoteCall<T> {
+        T call() throws RemoteException;
+    }
+}
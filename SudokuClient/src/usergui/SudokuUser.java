@@ -1,5 +1,6 @@
 package usergui;
 
+import common.User;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
@@ -39,6 +40,12 @@ public class SudokuUser extends Application {
         dialog.setContentText("Enter a username:");
         Optional<String> enteredUsername = dialog.showAndWait(); // for creating User
 
+        // statistics of a longer username could not be recorded, so it is asked again
+        while(enteredUsername.isPresent() && !User.isRecordableUsername(enteredUsername.get())) {
+            dialog.setHeaderText("Username can have at most " + User.MAX_USERNAME_BYTES + " bytes");
+            enteredUsername = dialog.showAndWait();
+        }
+
         // If user does not click OK, the application shuts down
         if(!enteredUsername.isPresent()) {
             Platform.exit();
@@ -13,7 +13,6 @@ import javafx.scene.text.Font;
 import server.*;
 import common.*;
 
-import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.Optional;
@@ -56,6 +55,10 @@ public class UserController {
     private int selectedColumn;
     // Reference to the server interface
     private SudokuServerInterface sudokuServer;
+    // Calls the server in the background and requests next games in advance
+    private AsyncSudokuServer asyncServer;
+    // Counts requests for new games, so that only the game of the last request is started
+    private int gameRequests;
     // Holds initial board with puzzle to solve
     private Board initialBoard;
     // Holds user board with moves made by user
@@ -78,6 +81,14 @@ public class UserController {
         timer = new TimerManager(lblTimer);
         user = new User(SudokuUser.getUsername());
         currentLevel = LevelType.EASY;
+
+        // empty boards are shown until the first game comes from the server
+        initialBoard = new Board();
+        initialBoard.createGrid();
+        userBoard = new Board();
+        userBoard.createGrid();
+        movesManager = new UndoRedoManager();
+
         startNewGame();
     }
 
@@ -89,6 +100,7 @@ public class UserController {
         try {
             Registry registry = LocateRegistry.getRegistry(host, 1099);
             sudokuServer = (SudokuServerInterface) registry.lookup("sudoku");
+            asyncServer = new AsyncSudokuServer(sudokuServer);
             System.out.println("Server " + sudokuServer + " is found.");
         } catch (Exception e) {
             System.out.println("ERROR " + e);
@@ -97,17 +109,42 @@ public class UserController {
     }
 
     /**
-     * Requests new game from the server;
-     * Saves information about the user;
-     * Starts timer
+     * Requests new game from the server, without waiting for it on the JavaFX thread;
+     * the game requested in advance is used, if there is one.
+     * When the game comes, it is started
      */
     private void startNewGame() {
-        try {
-            initialBoard = sudokuServer.generateSudoku(currentLevel); // default
-        } catch (RemoteException e) {
-            e.printStackTrace();
-        }
-        user.addDifficultyLevel(currentLevel);
+        int request = ++gameRequests;
+        LevelType level = currentLevel;
+        setGameButtonsDisabled(true);
+
+        AsyncSudokuServer.onFxThread(asyncServer.nextGame(level), (board, error) -> {
+            // a newer game is requested already
+            if(request != gameRequests)
+                return;
+
+            setGameButtonsDisabled(false);
+            if(error != null || board == null) {
+                if(error != null)
+                    error.printStackTrace();
+                System.out.println("Error in getting new game from the server.");
+                return;
+            }
+
+            showNewGame(board, level);
+        });
+    }
+
+    /**
+     * Shows the game got from the server;
+     * Saves information about the user;
+     * Starts timer, and the server starts measuring the time of solving for the leaderboard
+     * @param board Board with the new puzzle
+     * @param level difficulty level of the puzzle
+     */
+    private void showNewGame(Board board, LevelType level) {
+        initialBoard = board;
+        user.addDifficultyLevel(level);
         userBoard = new Board();
         userBoard.createGrid();
 
@@ -121,6 +158,21 @@ public class UserController {
         drawOnCanvas(context);
 
         timer.startTimer();
+        AsyncSudokuServer.onFxThread(asyncServer.startGame(board.getGameId()), (started, error) -> {
+            if(error != null)
+                error.printStackTrace();
+        });
+    }
+
+    /**
+     * Disables the buttons, which need the current game or start another one, while a new game is requested
+     * @param disabled
+     */
+    private void setGameButtonsDisabled(boolean disabled) {
+        tpLevel.setDisable(disabled);
+        btnCheckInput.setDisable(disabled);
+        btnShowSolution.setDisable(disabled);
+        btnNewGame.setDisable(disabled);
     }
 
     /**
@@ -143,8 +195,10 @@ public class UserController {
         // Checks if the initialBoard has a zero (treated as blank cell) in the position put in a number in userBoard
         // This way are avoided intersections between the two
         if (initialBoard.getCell(row, col).isBlank()) {
-            if(value >=0 && value <= 9)
+            if(value >=0 && value <= 9) {
                 userBoard.getCell(row, col).setValue(value);
+                checkCompletion();
+            }
             else
                 // print out an error message
                 System.out.println("The passed value is not valid.");
@@ -227,17 +281,20 @@ public class UserController {
     }
 
     /**
-     * Draws the values, which a user inputs. They must not intersect with those of initialBoard
+     * Draws the values, which a user inputs. They must not intersect with those of initialBoard;
+     * values, which are also in the same row, column or block, are drawn in red
      * @param context
      */
     private void drawUserValues(GraphicsContext context) {
         Cell[][] userCells = userBoard.getGrid();
+        // values breaking the rules are found locally, on the union of both boards
+        Board unionBoard = boardsUnion();
         for(int row = 0; row < 9; row++) {
             for(int col = 0; col < 9; col++) {
                 int positionY = row * 50 + 30;
                 int positionX = col * 50 + 20;
 
-                context.setFill(Color.DEEPSKYBLUE);
+                context.setFill(unionBoard.hasConflict(row, col) ? Color.RED : Color.DEEPSKYBLUE);
                 context.setFont(new Font(20));
                 // check if value of corresponding cell is not 0 and that cell is not in initialBoard
                 if(!userCells[row][col].isBlank() && initialBoard.getCell(row, col).isBlank())
@@ -450,20 +507,94 @@ public class UserController {
     }
 
     /**
-     * On clicking the Check Input button, a union board is created from the inital and user board,
-     * so that a full board can be send to the server for checking
-     * If the puzzle is solved, the winning result is saved,
-     * else an Alert is displayed, informing that the solution is not correct and the user can continue solving
+     * On clicking the Check Input button, a union board is created from the inital and user board
+     * and checked locally with the fingerprint of the solution; if the fingerprint is not known,
+     * the full board is send to the server for checking and the answer is shown, when it comes
      * @param event
      */
     @FXML
     void btnCheckInputClicked(MouseEvent event) {
-        try {
-            isSolved = sudokuServer.isSolution(boardsUnion());
-        } catch (RemoteException e) {
-            e.printStackTrace();
+        // the game is solved already, or its solution is shown
+        if(isSolved)
+            return;
+
+        Board answer = boardsUnion();
+
+        // the answer is checked locally, if the fingerprint of the solution is known
+        if(initialBoard.getSolutionFingerprint() != 0) {
+            if(initialBoard.isSolvedBy(answer))
+                solvedLocally(answer);
+            else
+                showCheckResult(false);
+            return;
         }
 
+        long gameId = initialBoard.getGameId();
+        btnCheckInput.setDisable(true);
+
+        AsyncSudokuServer.onFxThread(asyncServer.isSolution(gameId, answer.pack()), (solved, error) -> {
+            // the answer is about a game, which is not played anymore
+            if(gameId != initialBoard.getGameId())
+                return;
+
+            btnCheckInput.setDisable(false);
+            if(error != null)
+                error.printStackTrace();
+            else if(solved)
+                submitTime(answer);
+
+            showCheckResult(error == null && solved);
+        });
+    }
+
+    /**
+     * After every move, checks locally if the puzzle is solved, so that the user does not have to ask the server
+     */
+    private void checkCompletion() {
+        if(isSolved)
+            return;
+
+        Board answer = boardsUnion();
+        if(initialBoard.isSolvedBy(answer)) {
+            drawOnCanvas(canvas.getGraphicsContext2D());
+            solvedLocally(answer);
+        }
+    }
+
+    /**
+     * Shows that the puzzle is solved and only notifies the server about the final answer,
+     * which records the time of solving for the leaderboard
+     * @param answer union of the initial and user board
+     */
+    private void solvedLocally(Board answer) {
+        submitTime(answer);
+        showCheckResult(true);
+    }
+
+    /**
+     * Sends the solved answer to the server, which measures the time of solving and records it in the leaderboard
+     * @param answer union of the initial and user board
+     */
+    private void submitTime(Board answer) {
+        long gameId = initialBoard.getGameId();
+
+        AsyncSudokuServer.onFxThread(asyncServer.submitTime(gameId, user.getUsername(), answer.pack()),
+                (best, error) -> {
+                    if(error != null)
+                        error.printStackTrace();
+                    else if(best)
+                        System.out.println("The time is one of the best of level " + currentLevel + ".");
+                });
+    }
+
+    /**
+     * If the puzzle is solved, the winning result is saved,
+     * else an Alert is displayed, informing that the solution is not correct and the user can continue solving
+     * @param solved answer of the server
+     */
+    private void showCheckResult(boolean solved) {
+        isSolved = solved;
+
         if(isSolved) {
             saveResults(GameOutcome.SOLVED);
 
@@ -516,7 +647,7 @@ public class UserController {
     /**
      * On clicking the Show Solution button, a confirmation Alert is displayed,
      * because the current game will be counted as unsolved.
-     * On clicking OK, the correct solution is requested from the server and then displayed
+     * On clicking OK, the correct solution is requested from the server and displayed, when it comes
      * @param event
      */
     @FXML
@@ -530,16 +661,26 @@ public class UserController {
 
         if(option.isPresent())
             if(option.get() == ButtonType.OK) {
-                try {
-                    userBoard = sudokuServer.showSolution();
-                    saveResults(GameOutcome.UNSOLVED);
-
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-
+                long gameId = initialBoard.getGameId();
+                saveResults(GameOutcome.UNSOLVED);
                 isSolved = true;
-                drawOnCanvas(canvas.getGraphicsContext2D());
+                btnShowSolution.setDisable(true);
+
+                AsyncSudokuServer.onFxThread(asyncServer.showSolution(gameId), (solution, error) -> {
+                    // the solution is of a game, which is not played anymore
+                    if(gameId != initialBoard.getGameId())
+                        return;
+
+                    btnShowSolution.setDisable(false);
+                    if(error != null)
+                        error.printStackTrace();
+                    else if(solution != null)
+                        userBoard = solution;
+                    else
+                        System.out.println("The solution of this game is not available anymore.");
+
+                    drawOnCanvas(canvas.getGraphicsContext2D());
+                });
             }
     }
 
@@ -564,17 +705,19 @@ public class UserController {
                     return;
         }
 
-        try {
-            sudokuServer.recordStatistics(user);
-        }
-        catch (RemoteException e) {
-            e.printStackTrace();
-            System.out.println("Error with recording statistics");
-        }
-        quitApp();
+        btnExit.setDisable(true);
+        AsyncSudokuServer.onFxThread(asyncServer.recordStatistics(user), (ignored, error) -> {
+            if(error != null) {
+                error.printStackTrace();
+                System.out.println("Error with recording statistics");
+            }
+            quitApp();
+        });
     }
 
     private void quitApp() {
+        if(asyncServer != null)
+            asyncServer.shutdown();
         Platform.exit();
         System.exit(0);
     }
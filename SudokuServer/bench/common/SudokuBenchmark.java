@@ -0,0 +1,411 @@
+package common;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * SudokuServer/bench: SudokuBenchmark.java
+ * Measures the solver and the generator, and prints the results as JSON for regression tracking
+ *
+ * Usage: java -cp <classes> common.SudokuBenchmark [-o results.json] [-f regex] [-wi 3] [-i 5] [-t 1000]
+ *                                                    [-n 10000000]
+ *  -o   file for JSON results (default: standard output)
+ *  -f   runs only benchmarks, whose name matches the regular expression
+ *  -wi  number of warm-up iterations
+ *  -i   number of measured iterations
+ *  -t   duration of one iteration in milliseconds
+ *  -n   node limit of one search of Solver; a benchmark, which reaches it, is reported as timeout
+ *
+ * All inputs are fixed: the puzzles below, and Las Vegas seeds and RANDOM dig orders from Random with SEED,
+ * so that results of runs can be compared between commits.
+ */
+public class SudokuBenchmark {
+    /**
+     * Seed of Las Vegas seeds; with it, each of the 64 seeds is solved without propagation in less than 10^7 nodes
+     */
+    static final long SEED = 3;
+
+    /**
+     * Fixed puzzles of each level with their solutions, so that all runs measure the same work
+     */
+    private static final String[][] EASY = {
+            {"..16.45....673.2..7..91...6.68.97.2...9482..33...5.89....5.....87.2.9.4129......7",
+             "931624578546738219782915436468397125159482763327156894614573982875269341293841657"},
+            {".18..467...9816.43...9..2.8.8..4593.6....8..115.3.978..3.682...9.17..82.82.4.1..7",
+             "318524679279816543546937218782145936693278451154369782437682195961753824825491367"},
+            {"....4...7.....8..4465.3.128.....38.5...4.1..2.1.8..9.31349852.69...6.4.172...4...",
+             "892146357371528694465739128249673815583491762617852943134985276958267431726314589"},
+            {"..6........15476..85.91..3...9.7..2..13..9...5.7.6....1.8..2954.6275...3435891..7",
+             "796328145321547689854916732649175328213489576587263491178632954962754813435891267"}
+    };
+    private static final String[][] MEDIUM = {
+            {"............3....7..7..93.4..6....5..38251.76...698.3..2..1678.8.4.7..216..982.43",
+             "362147895489365217157829364216734958938251476745698132523416789894573621671982543"},
+            {".....4......9......4..8.1......5...35..8..2.....3....181..37659..5.6831223..91874",
+             "358124796162975438749683125481752963593816247627349581814237659975468312236591874"},
+            {"......9.3..2.4......5....7..1.............5.46945173.2...3764.8.4.892.577..1.4.39",
+             "871265943932741865465983271513428796287639514694517382159376428346892157728154639"},
+            {".............7..16.....8.....2..3...9..5.7..4517.8296..8.9.567..758643.13967..54.",
+             "731256489458379216629148735842693157963517824517482963184935672275864391396721548"}
+    };
+    private static final String[][] HARD = {
+            {".........19...3.....8...7..2........6.98...42.1....6.7..4.28931..3.61.5..213948..",
+             "472985163196273485358146729247659318639817542815432697764528931983761254521394876"},
+            {".........8...7.6.........483........7..62.49....5.7.2...1.53...5347.2..9289164.35",
+             "123846957845379612967215348312498576758621493496537821671953284534782169289164735"},
+            {"........9.8..........9..52...62.........9...5518.46..2734...6.8.9235847...1.74...",
+             "265417389389562147147983526976235814423891765518746932734129658692358471851674293"},
+            {"8............92...7.....4..5....482....5..6...7..8....219.785.64..6.3..9.6..5..41",
+             "893745162146892375725136498531964827984527613672381954219478536457613289368259741"}
+    };
+
+    /**
+     * SudokuBenchmark has:
+     *  - warmups, iterations, iterationMillis - how long each benchmark runs
+     *  - nodeLimit - node limit of one search of Solver
+     *  - filter - which benchmarks are run
+     *  - results - JSON objects of finished benchmarks
+     *  - sink - results of measured operations are added here, so that JIT cannot remove them
+     */
+    private final int warmups;
+    private final int iterations;
+    private final long iterationMillis;
+    private final long nodeLimit;
+    private final Pattern filter;
+    private final List<String> results = new ArrayList<>();
+    private long sink;
+
+    SudokuBenchmark(int warmups, int iterations, long iterationMillis, long nodeLimit, Pattern filter) {
+        this.warmups = Math.max(0, warmups);
+        this.iterations = Math.max(1, iterations);
+        this.iterationMillis = Math.max(1, iterationMillis);
+        this.nodeLimit = Math.max(1, nodeLimit);
+        this.filter = filter;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i + 1 < args.length; i += 2)
+            options.put(args[i], args[i + 1]);
+
+        SudokuBenchmark benchmark = new SudokuBenchmark(
+                Integer.parseInt(options.getOrDefault("-wi", "3")),
+                Integer.parseInt(options.getOrDefault("-i", "5")),
+                Long.parseLong(options.getOrDefault("-t", "1000")),
+                Long.parseLong(options.getOrDefault("-n", "10000000")),
+                Pattern.compile(options.getOrDefault("-f", ".*")));
+
+        benchmark.runAll();
+
+        String json = benchmark.toJson();
+        if(options.containsKey("-o")) {
+            try(Writer writer = new FileWriter(options.get("-o"))) {
+                writer.write(json);
+            }
+            System.out.println("Results are written in " + options.get("-o"));
+        }
+        else
+            System.out.println(json);
+    }
+
+    void runAll() throws IOException {
+        benchmarkSolve();
+        benchmarkCountSolutions();
+        benchmarkDigHoles();
+        benchmarkGenerateGame();
+        benchmarkSerialization();
+    }
+
+    /**
+     * Full board solve from Las Vegas seeds, with and without propagation
+     */
+    private void benchmarkSolve() {
+        for(boolean propagation : new boolean[] {false, true}) {
+            Solver solver = new LimitedSolver(propagation, nodeLimit);
+            Grid[] seeds = createSeeds(64);
+            Grid grid = new Grid();
+            int[] next = {0};
+
+            measure("solve", params("propagation", propagation), () -> {
+                grid.copyFrom(seeds[next[0]++ % seeds.length]);
+                solver.setGrid(grid);
+                return solver.solve() ? 1 : 0;
+            });
+        }
+    }
+
+    /**
+     * countSolutions(2) on the fixed puzzles of each level, for every SolverType
+     */
+    private void benchmarkCountSolutions() {
+        for(SolverType solverType : SolverType.values()) {
+            for(LevelType level : LevelType.values()) {
+                SolutionCounter counter = createLimitedCounter(solverType);
+                Grid[] puzzles = puzzles(level, 0);
+                int[] next = {0};
+
+                measure("countSolutions", params("solver", solverType, "level", level), () -> {
+                    counter.setGrid(puzzles[next[0]++ % puzzles.length]);
+                    return counter.countSolutions(2);
+                });
+            }
+        }
+    }
+
+    /**
+     * Digging 50 holes in the fixed solutions, for every Sequence, by one thread and by the common fork/join pool;
+     * RANDOM orders come from Random with SEED
+     */
+    private void benchmarkDigHoles() {
+        for(Sequence sequence : Sequence.values()) {
+            SolutionCounter counter = SolverType.fromProperty().createCounter();
+            Grid[] solutions = puzzles(LevelType.HARD, 1);
+            Grid grid = new Grid();
+            int[] next = {0};
+            Random random = new Random(SEED);
+
+            measure("digHoles", params("sequence", sequence, "solver", SolverType.fromProperty()), () -> {
+                grid.copyFrom(solutions[next[0]++ % solutions.length]);
+                SudokuGame.digHoles(grid, Grid.order(sequence, random), 50, counter);
+                return grid.get(0);
+            });
+
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            Random parallelRandom = new Random(SEED);
+            measure("digHolesInParallel", params("sequence", sequence, "solver", SolverType.fromProperty(),
+                    "parallelism", pool.getParallelism()), () -> {
+                grid.copyFrom(solutions[next[0]++ % solutions.length]);
+                SudokuGame.digHolesInParallel(grid, Grid.order(sequence, parallelRandom), 50,
+                        SolverType.fromProperty(), pool);
+                return grid.get(0);
+            });
+        }
+    }
+
+    /**
+     * Whole generating of a game of each level
+     */
+    private void benchmarkGenerateGame() {
+        for(LevelType level : LevelType.values()) {
+            SudokuGame game = new SudokuGame();
+            measure("generateGame", params("level", level, "solver", SolverType.fromProperty()),
+                    () -> game.generateGame(level).getGameId());
+        }
+    }
+
+    /**
+     * Java serialization of a puzzle Board, as it is sent over RMI
+     */
+    private void benchmarkSerialization() throws IOException {
+        String[] puzzle = HARD[0];
+        Board board = SudokuGame.fromPacked(1, LevelType.HARD,
+                parse(puzzle[0]).pack(), parse(puzzle[1]).pack()).getBoard();
+        byte[] serialized = serialize(board);
+
+        measure("serializeBoard", params("bytes", serialized.length), () -> {
+            try {
+                return serialize(board).length;
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        measure("deserializeBoard", params("bytes", serialized.length), () -> {
+            try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+                return ((Board) in.readObject()).getGameId();
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            catch(ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static byte[] serialize(Board board) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(board);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Runs the operation repeatedly during warm-up and measured iterations, and saves average time of one operation
+     * @param name name of the benchmark
+     * @param params JSON object with parameters of the benchmark
+     * @param operation measured operation; its result is consumed
+     */
+    private void measure(String name, String params, Supplier<Number> operation) {
+        if(!filter.matcher(name).find())
+            return;
+
+        double[] scores = new double[iterations];
+        try {
+            for(int i = 0; i < warmups; i++)
+                runIteration(operation);
+
+            for(int i = 0; i < iterations; i++)
+                scores[i] = runIteration(operation);
+        }
+        catch(NodeLimitException e) {
+            System.err.printf("%-18s %-50s %15s%n", name, params, "timeout");
+            results.add(String.format(Locale.ROOT,
+                    "{\"benchmark\": \"%s\", \"mode\": \"avgt\", \"params\": %s, \"timeout\": true, " +
+                    "\"nodeLimit\": %d}", name, params, nodeLimit));
+            return;
+        }
+
+        double mean = Arrays.stream(scores).average().orElse(0);
+        double deviation = Math.sqrt(Arrays.stream(scores).map(score -> (score - mean) * (score - mean)).sum()
+                / Math.max(1, iterations - 1));
+
+        System.err.printf("%-18s %-50s %12.3f us/op%n", name, params, mean);
+        results.add(String.format(Locale.ROOT,
+                "{\"benchmark\": \"%s\", \"mode\": \"avgt\", \"params\": %s, \"iterations\": %d, " +
+                "\"primaryMetric\": {\"score\": %.3f, \"scoreError\": %.3f, \"scoreUnit\": \"us/op\", " +
+                "\"rawData\": %s}}",
+                name, params, iterations, mean, deviation, Arrays.toString(scores)));
+    }
+
+    /**
+     * @param solverType
+     * @return counter of the type; Solver is created as LimitedSolver with nodeLimit
+     */
+    private SolutionCounter createLimitedCounter(SolverType solverType) {
+        switch(solverType) {
+            case BACKTRACKING: return new LimitedSolver(false, nodeLimit);
+            case PROPAGATION: return new LimitedSolver(true, nodeLimit);
+            default: return solverType.createCounter();
+        }
+    }
+
+    /**
+     * @param operation
+     * @return average time of one operation in microseconds
+     */
+    private double runIteration(Supplier<Number> operation) {
+        long operations = 0;
+        long start = System.nanoTime();
+        long end = start + iterationMillis * 1_000_000;
+        long now;
+
+        do {
+            sink += operation.get().longValue();
+            operations++;
+            now = System.nanoTime();
+        } while(now < end);
+
+        return (now - start) / 1000.0 / operations;
+    }
+
+    String toJson() {
+        return "[\n  " + String.join(",\n  ", results) + "\n]\n";
+    }
+
+    /**
+     * @param keysAndValues
+     * @return JSON object with given keys and values, all written as strings
+     */
+    private static String params(Object... keysAndValues) {
+        StringJoiner joiner = new StringJoiner(", ", "{", "}");
+        for(int i = 0; i + 1 < keysAndValues.length; i += 2)
+            joiner.add("\"" + keysAndValues[i] + "\": \"" + keysAndValues[i + 1] + "\"");
+        return joiner.toString();
+    }
+
+    /**
+     * @param count
+     * @return Las Vegas seeds, which have a solution; seeds without solution could run for very long without propagation.
+     *         They are the same in every run
+     */
+    private static Grid[] createSeeds(int count) {
+        Solver solver = new Solver(true);
+        Random random = new Random(SEED);
+        Grid[] seeds = new Grid[count];
+        for(int i = 0; i < count; ) {
+            Grid seed = new Grid();
+            SudokuGame.lasVegas(seed, random);
+
+            Grid copy = new Grid(seed);
+            solver.setGrid(copy);
+            if(solver.solve())
+                seeds[i++] = seed;
+        }
+        return seeds;
+    }
+
+    /**
+     * @param level
+     * @param column 0 for puzzles, 1 for their solutions
+     * @return fixed grids of the level
+     */
+    private static Grid[] puzzles(LevelType level, int column) {
+        String[][] corpus = level == LevelType.EASY ? EASY : level == LevelType.MEDIUM ? MEDIUM : HARD;
+        Grid[] grids = new Grid[corpus.length];
+        for(int i = 0; i < corpus.length; i++)
+            grids[i] = parse(corpus[i][column]);
+        return grids;
+    }
+
+    /**
+     * @param values 81 characters, digit for a value and '.' for blank cell
+     * @return Grid with the values
+     */
+    private static Grid parse(String values) {
+        Grid grid = new Grid();
+        for(int index = 0; index < Grid.SIZE; index++) {
+            char value = values.charAt(index);
+            grid.set(index, value >= '1' && value <= '9' ? value - '0' : 0);
+        }
+        return grid;
+    }
+
+    /**
+     * Solver, which gives up a search after nodeLimit tried values by throwing NodeLimitException,
+     * so that a grid, which takes too long, is reported as timeout instead of running on
+     */
+    private static class LimitedSolver extends Solver {
+        private final long nodeLimit;
+        private long nodes;
+
+        LimitedSolver(boolean propagation, long nodeLimit) {
+            super(propagation);
+            this.nodeLimit = nodeLimit;
+        }
+
+        @Override
+        public int countSolutions(int limit) {
+            nodes = 0;
+            return super.countSolutions(limit);
+        }
+
+        @Override
+        boolean solve() {
+            nodes = 0;
+            return super.solve();
+        }
+
+        @Override
+        void tryingValue() {
+            if(++nodes > nodeLimit)
+                throw new NodeLimitException();
+        }
+    }
+
+    /**
+     * Thrown by a measured operation, when its search reached the node limit
+     */
+    private static class NodeLimitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NodeLimitException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package common;
 
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -14,11 +14,18 @@ public class Board implements Iterable<Cell>, Serializable {
      *  - 2d list of blocks, each block is (3x3)
      *  - list with all cells
      *  - order in which cells are shuffled
+     *  - gameId - identifies the game on the server, to which the board belongs (0 if none)
+     *  - solutionFingerprint - fingerprint of the solution of the puzzle (PackedDigits.fingerprint), so that the client
+     *    can recognize the solution without asking the server (0 if unknown)
+     *  - wireForm - compact form for sending, created once when the board is sealed as read-only
      */
     private Cell[][] grid;
     private List<List<Cell>> blocks;
     private List<Cell> cells;
     private Sequence order;
+    private long gameId;
+    private long solutionFingerprint;
+    private transient WireBoard wireForm;
 
     public Board() {
         grid = new Cell[9][9];
@@ -63,6 +70,22 @@ public class Board implements Iterable<Cell>, Serializable {
         return order;
     }
 
+    public long getGameId() {
+        return gameId;
+    }
+
+    void setGameId(long gameId) {
+        this.gameId = gameId;
+    }
+
+    public long getSolutionFingerprint() {
+        return solutionFingerprint;
+    }
+
+    void setSolutionFingerprint(long solutionFingerprint) {
+        this.solutionFingerprint = solutionFingerprint;
+    }
+
     /**
      * Creates an empty grid, all cell's values are 0;
      * Saves cell objects in List cells and List<List> blocks for future use
@@ -78,6 +101,26 @@ public class Board implements Iterable<Cell>, Serializable {
         }
     }
 
+    /**
+     * Creates a board from the compact grids used while generating a puzzle
+     * @param puzzle values of the cells, 0 for blank cells
+     * @param solution correct values of the cells
+     * @return Board with all cell's values and correct values set
+     */
+    static Board fromGrid(Grid puzzle, Grid solution) {
+        Board board = new Board();
+        board.createGrid();
+
+        for(Cell cell : board.cells) {
+            int index = Grid.index(cell.getRow(), cell.getColumn());
+            cell.setValue(puzzle.get(index));
+            cell.setCorrectValue(solution.get(index));
+        }
+        board.saveCellValues();
+
+        return board;
+    }
+
     /**
      * Checks if value could be placed in given cell
      * @param cell Cell in which is tried to place value
@@ -146,6 +189,158 @@ public class Board implements Iterable<Cell>, Serializable {
         return true;
     }
 
+    /**
+     * Checks if the value of given cell is also in another cell of its row, column or block
+     * @param row
+     * @param col
+     * @return true, if the cell is not blank and its value breaks the rules
+     */
+    public boolean hasConflict(int row, int col) {
+        Cell cell = getCell(row, col);
+        if(cell == null || cell.isBlank())
+            return false;
+
+        int value = cell.getValue();
+        for(int i = 0; i < 9; i++) {
+            if(i != col && grid[row][i].getValue() == value)
+                return true;
+            if(i != row && grid[i][col].getValue() == value)
+                return true;
+        }
+        for(Cell other : blocks.get(cell.getBlock())) {
+            if(other != cell && other.getValue() == value)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true, if no cell is blank
+     */
+    public boolean isFull() {
+        for(Cell cell : cells) {
+            if(cell.isBlank())
+                return false;
+        }
+        return !cells.isEmpty();
+    }
+
+    /**
+     * Checks an answer locally, comparing its fingerprint with the fingerprint of the solution of this puzzle
+     * @param answer Board with values of all cells
+     * @return true, if the answer is the solution; false, if it is not or the fingerprint of the solution is unknown
+     */
+    public boolean isSolvedBy(Board answer) {
+        if(solutionFingerprint == 0 || answer == null || !answer.isFull())
+            return false;
+
+        return PackedDigits.fingerprint(gameId, answer.pack()) == solutionFingerprint;
+    }
+
+    /**
+     * @return current values of all cells in row-major order
+     */
+    byte[] getValues() {
+        byte[] values = new byte[Grid.SIZE];
+        for(Cell cell : cells)
+            values[Grid.index(cell.getRow(), cell.getColumn())] = (byte) cell.getValue();
+        return values;
+    }
+
+    /**
+     * @return current values of all cells, packed by PackedDigits in 41 bytes
+     */
+    public byte[] pack() {
+        return PackedDigits.pack(getValues());
+    }
+
+    /**
+     * Board is not serialized with its cells, lists and blocks, but is replaced by compact WireBoard
+     * @return WireBoard with packed values of the cells
+     */
+    private Object writeReplace() {
+        return wireForm != null ? wireForm : new WireBoard(this);
+    }
+
+    /**
+     * Makes the board read-only, so that it can be shared and sent many times;
+     * its compact form for sending is created only once
+     */
+    void seal() {
+        cells.forEach(Cell::lock);
+        wireForm = new WireBoard(this);
+    }
+
+    /**
+     * Compact form of Board, which is sent over RMI: game id, fingerprint of the solution, order
+     * and the 81 values packed in 41 bytes.
+     * Only current values of cells are sent; the grid, lists and blocks are created again when it is read
+     */
+    private static final class WireBoard implements Externalizable {
+        private static final long serialVersionUID = 2L;
+
+        private long gameId;
+        private long solutionFingerprint;
+        private Sequence order;
+        private byte[] packedValues;
+
+        public WireBoard() {
+        }
+
+        WireBoard(Board board) {
+            gameId = board.gameId;
+            solutionFingerprint = board.solutionFingerprint;
+            order = board.order;
+            packedValues = board.cells.isEmpty() ? null : board.pack();
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeLong(gameId);
+            out.writeLong(solutionFingerprint);
+            out.writeByte(order != null ? order.ordinal() : -1);
+            out.writeBoolean(packedValues != null);
+            if(packedValues != null)
+                out.write(packedValues);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            gameId = in.readLong();
+            solutionFingerprint = in.readLong();
+
+            int orderIndex = in.readByte();
+            if(orderIndex >= Sequence.values().length)
+                throw new InvalidObjectException("Unknown order of board: " + orderIndex);
+            order = orderIndex >= 0 ? Sequence.values()[orderIndex] : null;
+
+            if(in.readBoolean()) {
+                packedValues = new byte[PackedDigits.LENGTH];
+                in.readFully(packedValues);
+                if(!PackedDigits.isValid(packedValues))
+                    throw new InvalidObjectException("Values of board are not valid");
+            }
+        }
+
+        /**
+         * @return Board with the received values
+         */
+        private Object readResolve() {
+            Board board = new Board();
+            board.gameId = gameId;
+            board.solutionFingerprint = solutionFingerprint;
+            board.order = order;
+
+            if(packedValues != null) {
+                board.createGrid();
+                for(Cell cell : board.cells)
+                    cell.setValue(PackedDigits.get(packedValues, Grid.index(cell.getRow(), cell.getColumn())));
+            }
+
+            return board;
+        }
+    }
+
     /**
      * Saves all cell's current values for future use
      */
@@ -246,17 +441,11 @@ public class Board implements Iterable<Cell>, Serializable {
         return cells.equals(otherBoard.getCells());
     }
 
-    Board getSolution() {
-        Board correctBoard = new Board();
-        correctBoard.createGrid();
-
-        for(int row = 0; row < 9; row++) {
-            for(int col = 0; col < 9; col++) {
-                int currentValue = grid[row][col].getCorrectValue();
-                correctBoard.getCell(row, col).setValue(currentValue);
-            }
-        }
-
-        return correctBoard;
+    /**
+     * @return hash code of the current values of cells, consistent with equals()
+     */
+    @Override
+    public int hashCode() {
+        return cells.hashCode();
     }
 }
@@ -0,0 +1,171 @@
+package common;
+
+import java.util.Arrays;
+
+/**
+ * SudokuServer/common: CanonicalForm.java
+ * Finds the canonical form of a puzzle: the lexicographically smallest grid among all equivalent ones
+ * (see PuzzleTransformer), so that two puzzles are equivalent exactly when their canonical forms are equal.
+ *
+ * The grid may be transposed and its columns are permuted (2 * 6^4 ways); for each of them, rows are chosen
+ * one by one and digits are relabeled in order of their first appearance, which gives the smallest grid
+ * for the chosen rows and columns. A row, which makes the grid bigger than the smallest one found so far,
+ * is not continued.
+ */
+public final class CanonicalForm {
+    /**
+     * Value bigger than any digit, for the cells of the smallest grid, which are not found yet
+     */
+    private static final byte UNKNOWN = Byte.MAX_VALUE;
+
+    /**
+     * All 6^4 permutations of columns, which keep columns inside their stacks
+     */
+    private static final int[][] COLUMN_PERMUTATIONS = columnPermutations();
+
+    /**
+     * CanonicalForm has:
+     *  - source - values of the grid, transposed or not
+     *  - columns - current permutation of columns
+     *  - best - smallest grid found so far
+     *  - current - relabeled values of the rows chosen so far
+     *  - bands - band of the source, from which the row at each position was taken
+     *  - labels - new label of each digit, 0 if it has no label yet
+     *  - labeled - digits in order, in which they got labels, so that labels can be taken back
+     */
+    private final byte[] source = new byte[Grid.SIZE];
+    private int[] columns;
+    private final byte[] best = new byte[Grid.SIZE];
+    private final byte[] current = new byte[Grid.SIZE];
+    private final int[] bands = new int[9];
+    private final int[] labels = new int[10];
+    private final int[] labeled = new int[10];
+    private int labelCount;
+
+    private CanonicalForm() {
+    }
+
+    /**
+     * @param packedPuzzle values of the puzzle, packed by PackedDigits
+     * @return 64-bit hash of the canonical form of the puzzle; equivalent puzzles have equal hashes
+     */
+    public static long hash(byte[] packedPuzzle) {
+        return PackedDigits.fingerprint(0, PackedDigits.pack(of(Grid.unpack(packedPuzzle))));
+    }
+
+    /**
+     * @param grid
+     * @return values of the canonical form of the grid in row-major order
+     */
+    static byte[] of(Grid grid) {
+        CanonicalForm form = new CanonicalForm();
+        Arrays.fill(form.best, UNKNOWN);
+
+        for(int transposed = 0; transposed < 2; transposed++) {
+            for(int index = 0; index < Grid.SIZE; index++) {
+                int source = transposed == 0 ? index : Grid.index(Grid.column(index), Grid.row(index));
+                form.source[index] = (byte) grid.get(source);
+            }
+
+            for(int[] permutation : COLUMN_PERMUTATIONS) {
+                form.columns = permutation;
+                form.placeRow(0, 0);
+            }
+        }
+
+        return form.best;
+    }
+
+    /**
+     * Tries every row, which can be placed at the position, and continues with the next position,
+     * if the grid is not bigger than the smallest one
+     * @param position position of the row in the new grid
+     * @param usedRows mask of rows of the source, which are placed already
+     */
+    private void placeRow(int position, int usedRows) {
+        if(position == 9)
+            return;
+
+        int firstRow, lastRow;
+        if(position % 3 == 0) {
+            // a new band starts, any row of an unused band can be the first one
+            firstRow = 0;
+            lastRow = 8;
+        }
+        else {
+            int band = bands[position - 1];
+            firstRow = band * 3;
+            lastRow = band * 3 + 2;
+        }
+
+        for(int row = firstRow; row <= lastRow; row++) {
+            if((usedRows & (1 << row)) != 0 || (position % 3 == 0 && (usedRows & (7 << (row / 3 * 3))) != 0))
+                continue;
+
+            int savedLabels = labelCount;
+            if(relabelRow(row, position)) {
+                bands[position] = row / 3;
+                placeRow(position + 1, usedRows | (1 << row));
+            }
+
+            while(labelCount > savedLabels)
+                labels[labeled[--labelCount]] = 0;
+        }
+    }
+
+    /**
+     * Relabels the values of the row of the source and compares them with the smallest grid;
+     * if they are smaller, they become part of the smallest grid, and the rest of it is unknown
+     * @param row row of the source
+     * @param position position of the row in the new grid
+     * @return false, if the grid would be bigger than the smallest one
+     */
+    private boolean relabelRow(int row, int position) {
+        int start = position * 9;
+        boolean smaller = false;
+
+        for(int col = 0; col < 9; col++) {
+            int value = source[row * 9 + columns[col]];
+            if(value != 0) {
+                if(labels[value] == 0) {
+                    labeled[labelCount++] = value;
+                    labels[value] = labelCount;
+                }
+                value = labels[value];
+            }
+            current[start + col] = (byte) value;
+
+            if(!smaller) {
+                if(value > best[start + col])
+                    return false;
+                if(value < best[start + col])
+                    smaller = true;
+            }
+        }
+
+        if(smaller) {
+            System.arraycopy(current, start, best, start, 9);
+            Arrays.fill(best, start + 9, Grid.SIZE, UNKNOWN);
+        }
+        return true;
+    }
+
+    private static int[][] columnPermutations() {
+        int[][] orders = {{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}};
+        int[][] permutations = new int[6 * 6 * 6 * 6][9];
+
+        int count = 0;
+        for(int[] stacks : orders)
+            for(int[] first : orders)
+                for(int[] second : orders)
+                    for(int[] third : orders) {
+                        int[][] inStack = {first, second, third};
+                        for(int stack = 0; stack < 3; stack++)
+                            for(int i = 0; i < 3; i++)
+                                permutations[count][stack * 3 + i] = stacks[stack] * 3 + inStack[stack][i];
+                        count++;
+                    }
+
+        return permutations;
+    }
+}
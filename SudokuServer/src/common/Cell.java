@@ -12,6 +12,7 @@ public class Cell implements Serializable {
      *  - row, column, block - defining the position of cell
      *  - value - current value of cell
      *  - savedValue, correctValue, previousValue - variables helping for implementing the logic
+     *  - locked - cell of a read-only board, which value cannot be changed
      */
     final private int row;
     final private int column;
@@ -20,6 +21,7 @@ public class Cell implements Serializable {
     private int savedValue;
     private int correctValue;
     private int previousValue;
+    private transient boolean locked;
 
     public Cell(int row, int column) {
         this.row = row > 0 && row < 9 ? row : 0;
@@ -60,7 +62,25 @@ public class Cell implements Serializable {
      */
     public void setValue(int value) {
         this.previousValue = this.value;
-        this.value = value >= 1 && value <= 9 ? value : 0;
+        updateValue(value >= 1 && value <= 9 ? value : 0);
+    }
+
+    /**
+     * Changes the value, if the cell is not locked
+     * @param newValue
+     */
+    private void updateValue(int newValue) {
+        if(locked)
+            throw new UnsupportedOperationException("Cell of a read-only board cannot be changed");
+
+        value = newValue;
+    }
+
+    /**
+     * Makes the value of the cell unchangeable
+     */
+    void lock() {
+        locked = true;
     }
 
     public int getPreviousValue() { return previousValue; }
@@ -73,6 +93,10 @@ public class Cell implements Serializable {
         this.correctValue = value;
     }
 
+    void setCorrectValue(int correctValue) {
+        this.correctValue = correctValue >= 1 && correctValue <= 9 ? correctValue : 0;
+    }
+
     /**
      * Cell is treated like blank if it's value is zero
      * @return true, if value is 0; false, if it is not
@@ -100,7 +124,7 @@ public class Cell implements Serializable {
      * Loads the saved value
      */
     void loadSavedValue() {
-        value = savedValue;
+        updateValue(savedValue);
     }
 
 
@@ -129,4 +153,12 @@ public class Cell implements Serializable {
                 cell.getRow() == this.getRow() &&
                 cell.getColumn() == this.getColumn();
     }
+
+    /**
+     * @return hash code of value, row and column, consistent with equals()
+     */
+    @Override
+    public int hashCode() {
+        return (getRow() * 9 + getColumn()) * 10 + getValue();
+    }
 }
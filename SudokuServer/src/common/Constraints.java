@@ -0,0 +1,118 @@
+package common;
+
+/**
+ * SudokuServer/common: Constraints.java
+ * Tracks which values are already used in every row, column and block of a Sudoku grid.
+ * A mask has one bit for a value, so removing a value frees it in the unit; that is right only for grids,
+ * which never have a value twice in a unit (generated or stored puzzles). Boards filled by users can have
+ * duplicates, so they are checked by scanning their cells instead (Board.isValid)
+ */
+class Constraints {
+    /**
+     * Constraints has:
+     *  - rows, columns, blocks - 9-bit masks, bit (value - 1) is set if value is used in the unit
+     */
+    static final int ALL_VALUES = 0x1FF;
+
+    private final int[] rows;
+    private final int[] columns;
+    private final int[] blocks;
+
+    Constraints() {
+        rows = new int[9];
+        columns = new int[9];
+        blocks = new int[9];
+    }
+
+    /**
+     * @param value value in range 1-9
+     * @return mask with only the bit of given value set
+     */
+    static int bit(int value) {
+        return 1 << (value - 1);
+    }
+
+    /**
+     * @param bit mask with exactly one bit set
+     * @return value in range 1-9, represented by given bit
+     */
+    static int valueOf(int bit) {
+        return Integer.numberOfTrailingZeros(bit) + 1;
+    }
+
+    /**
+     * Marks value as used in the row, column and block of given position
+     * @param row
+     * @param col
+     * @param block
+     * @param value
+     */
+    void place(int row, int col, int block, int value) {
+        if(value < 1 || value > 9) return;
+
+        int bit = bit(value);
+        rows[row] |= bit;
+        columns[col] |= bit;
+        blocks[block] |= bit;
+    }
+
+    /**
+     * Marks value as no longer used in the row, column and block of given position
+     * @param row
+     * @param col
+     * @param block
+     * @param value
+     */
+    void remove(int row, int col, int block, int value) {
+        if(value < 1 || value > 9) return;
+
+        int bit = ~bit(value);
+        rows[row] &= bit;
+        columns[col] &= bit;
+        blocks[block] &= bit;
+    }
+
+    /**
+     * @param row
+     * @param col
+     * @param block
+     * @param value
+     * @return true, if value is not used in given row, column and block
+     */
+    boolean isValid(int row, int col, int block, int value) {
+        if(value < 1 || value > 9) return false;
+
+        return ((rows[row] | columns[col] | blocks[block]) & bit(value)) == 0;
+    }
+
+    /**
+     * @param row
+     * @param col
+     * @param block
+     * @return mask of all values which can still be placed in given position
+     */
+    int candidates(int row, int col, int block) {
+        return ~(rows[row] | columns[col] | blocks[block]) & ALL_VALUES;
+    }
+
+    /**
+     * Overwrites these masks with masks of other constraints
+     * @param otherConstraints
+     */
+    void copyFrom(Constraints otherConstraints) {
+        System.arraycopy(otherConstraints.rows, 0, rows, 0, 9);
+        System.arraycopy(otherConstraints.columns, 0, columns, 0, 9);
+        System.arraycopy(otherConstraints.blocks, 0, blocks, 0, 9);
+    }
+
+    /**
+     * Forgets all used values
+     */
+    void clear() {
+        for(int i = 0; i < 9; i++) {
+            rows[i] = 0;
+            columns[i] = 0;
+            blocks[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package common;
+
+/**
+ * SudokuServer/common: DancingLinksSolver.java
+ * Counts solutions of sudoku grids as exact cover problem, using Knuth's Algorithm X with Dancing Links
+ */
+class DancingLinksSolver implements SolutionCounter {
+    /**
+     * Exact cover matrix has 324 columns (constraints) and 729 rows (value placed in a cell):
+     *  - columns 1-81 - cell has a value
+     *  - columns 82-162 - row has a value
+     *  - columns 163-243 - column has a value
+     *  - columns 244-324 - block has a value
+     * Node 0 is the root, nodes 1-324 are column headers, other nodes are the four ones of each matrix row.
+     * The matrix is built once and reused for every grid.
+     */
+    private static final int COLUMNS = 4 * Grid.SIZE;
+    private static final int ROWS = 9 * Grid.SIZE;
+    private static final int NODES = 1 + COLUMNS + 4 * ROWS;
+
+    private final int[] left = new int[NODES];
+    private final int[] right = new int[NODES];
+    private final int[] up = new int[NODES];
+    private final int[] down = new int[NODES];
+    private final int[] column = new int[NODES];
+    private final int[] size = new int[COLUMNS + 1];
+    private final int[] rowStart = new int[ROWS];
+    private final int[] selected = new int[Grid.SIZE];
+
+    /**
+     * DancingLinksSolver has also:
+     *  - grid, which solutions are counted
+     *  - count, limit - number of found solutions and when to stop searching
+     */
+    private Grid grid;
+    private int count;
+    private int limit;
+
+    DancingLinksSolver() {
+        createMatrix();
+    }
+
+    private void createMatrix() {
+        for(int col = 0; col <= COLUMNS; col++) {
+            left[col] = col - 1;
+            right[col] = col + 1;
+            up[col] = col;
+            down[col] = col;
+            column[col] = col;
+        }
+        left[0] = COLUMNS;
+        right[COLUMNS] = 0;
+
+        int node = COLUMNS + 1;
+        for(int row = 0; row < ROWS; row++) {
+            int index = row / 9;
+            int value = row % 9;
+            int[] constraints = {
+                    1 + index,
+                    1 + Grid.SIZE + Grid.row(index) * 9 + value,
+                    1 + 2 * Grid.SIZE + Grid.column(index) * 9 + value,
+                    1 + 3 * Grid.SIZE + Grid.block(index) * 9 + value
+            };
+
+            rowStart[row] = node;
+            for(int i = 0; i < 4; i++, node++) {
+                int col = constraints[i];
+
+                // append node to the bottom of its column
+                column[node] = col;
+                down[node] = col;
+                up[node] = up[col];
+                down[up[col]] = node;
+                up[col] = node;
+                size[col]++;
+
+                // link node with the other nodes of the row
+                left[node] = i == 0 ? node + 3 : node - 1;
+                right[node] = i == 3 ? node - 3 : node + 1;
+            }
+        }
+    }
+
+    @Override
+    public void setGrid(Grid grid) {
+        if(grid != null)
+            this.grid = grid;
+
+        count = 0;
+    }
+
+    /**
+     * Covers the rows of given values and counts the ways, in which the rest columns can be covered
+     * @param limit maximum number of solutions to be found
+     * @return number of found solutions, not more than limit
+     */
+    @Override
+    public int countSolutions(int limit) {
+        this.count = 0;
+        this.limit = limit;
+
+        // cover the rows of all given values, remembering them to be uncovered in reverse order
+        int givens = 0;
+        boolean consistent = true;
+
+        for(int index = 0; index < Grid.SIZE && consistent; index++) {
+            if(grid.isBlank(index)) continue;
+
+            int node = rowStart[index * 9 + grid.get(index) - 1];
+            if(!isUncovered(node)) {
+                // value breaks the rules, so grid has no solution
+                consistent = false;
+                break;
+            }
+            selectRow(node);
+            selected[givens++] = node;
+        }
+
+        if(consistent)
+            search();
+
+        while(givens > 0)
+            unselectRow(selected[--givens]);
+
+        return count;
+    }
+
+    /**
+     * Algorithm X: chooses the column with fewest rows and tries each of them recursively
+     */
+    private void search() {
+        if(right[0] == 0) {
+            count++;
+            return;
+        }
+
+        int col = chooseColumn();
+        if(size[col] == 0) return;
+
+        cover(col);
+        for(int row = down[col]; row != col && count < limit; row = down[row]) {
+            for(int node = right[row]; node != row; node = right[node])
+                cover(column[node]);
+
+            search();
+
+            for(int node = left[row]; node != row; node = left[node])
+                uncover(column[node]);
+        }
+        uncover(col);
+    }
+
+    /**
+     * @return the column which can be covered by least number of rows
+     */
+    private int chooseColumn() {
+        int best = right[0];
+        for(int col = right[best]; col != 0 && size[best] > 1; col = right[col]) {
+            if(size[col] < size[best])
+                best = col;
+        }
+        return best;
+    }
+
+    /**
+     * @param node first node of a row
+     * @return true, if none of the columns of the row is covered already
+     */
+    private boolean isUncovered(int node) {
+        int current = node;
+        do {
+            int col = column[current];
+            if(right[left[col]] != col) return false;
+            current = right[current];
+        } while(current != node);
+
+        return true;
+    }
+
+    private void selectRow(int node) {
+        int current = node;
+        do {
+            cover(column[current]);
+            current = right[current];
+        } while(current != node);
+    }
+
+    private void unselectRow(int node) {
+        int current = left[node];
+        do {
+            uncover(column[current]);
+            current = left[current];
+        } while(current != left[node]);
+    }
+
+    private void cover(int col) {
+        right[left[col]] = right[col];
+        left[right[col]] = left[col];
+
+        for(int row = down[col]; row != col; row = down[row]) {
+            for(int node = right[row]; node != row; node = right[node]) {
+                down[up[node]] = down[node];
+                up[down[node]] = up[node];
+                size[column[node]]--;
+            }
+        }
+    }
+
+    private void uncover(int col) {
+        for(int row = up[col]; row != col; row = up[row]) {
+            for(int node = left[row]; node != row; node = left[node]) {
+                size[column[node]]++;
+                down[up[node]] = node;
+                up[down[node]] = node;
+            }
+        }
+
+        right[left[col]] = col;
+        left[right[col]] = col;
+    }
+}
@@ -0,0 +1,250 @@
+package common;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * SudokuServer/common: Grid.java
+ * Compact representation of Sudoku grid, used while solving and generating puzzles
+ */
+final class Grid {
+    /**
+     * Grid has:
+     *  - values - 81 values of cells in row-major order, 0 for blank cells
+     *  - constraints - masks of used values in rows, columns and blocks
+     *  - blankCount - number of blank cells, updated on every change
+     *  - journal - changes made by change(), each as index and previous value, so that they can be undone;
+     *    it is not copied with the grid
+     */
+    static final int SIZE = 81;
+
+    private static final int[] ROWS = new int[SIZE];
+    private static final int[] COLUMNS = new int[SIZE];
+    private static final int[] BLOCKS = new int[SIZE];
+
+    /**
+     * Indexes of cells in each of the 27 units: rows 0-8, columns 9-17, blocks 18-26
+     */
+    static final int[][] UNITS = new int[27][9];
+
+    static {
+        int[] blockSizes = new int[9];
+        for(int index = 0; index < SIZE; index++) {
+            ROWS[index] = index / 9;
+            COLUMNS[index] = index % 9;
+            BLOCKS[index] = (ROWS[index] / 3) * 3 + COLUMNS[index] / 3;
+
+            UNITS[ROWS[index]][COLUMNS[index]] = index;
+            UNITS[9 + COLUMNS[index]][ROWS[index]] = index;
+            UNITS[18 + BLOCKS[index]][blockSizes[BLOCKS[index]]++] = index;
+        }
+    }
+
+    private final byte[] values;
+    private final Constraints constraints;
+    private int blankCount;
+    private int[] journal;
+    private int journalSize;
+
+    Grid() {
+        values = new byte[SIZE];
+        constraints = new Constraints();
+        blankCount = SIZE;
+        journal = new int[SIZE];
+    }
+
+    Grid(Grid otherGrid) {
+        this();
+        copyFrom(otherGrid);
+    }
+
+    static int index(int row, int col) {
+        return row * 9 + col;
+    }
+
+    static int row(int index) {
+        return ROWS[index];
+    }
+
+    static int column(int index) {
+        return COLUMNS[index];
+    }
+
+    static int block(int index) {
+        return BLOCKS[index];
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Sets new value for a cell and updates the constraints
+     * @param index position of the cell (row * 9 + column)
+     * @param value value in range 1-9, or 0 for blank cell
+     */
+    void set(int index, int value) {
+        int row = ROWS[index], col = COLUMNS[index], block = BLOCKS[index];
+        constraints.remove(row, col, block, values[index]);
+        constraints.place(row, col, block, value);
+        blankCount += (value == 0 ? 1 : 0) - (values[index] == 0 ? 1 : 0);
+        values[index] = (byte) value;
+    }
+
+    boolean isBlank(int index) {
+        return values[index] == 0;
+    }
+
+    /**
+     * @return number of blank cells
+     */
+    int getBlankCount() {
+        return blankCount;
+    }
+
+    /**
+     * Sets new value for a cell, like set(), and saves the previous value in the journal
+     * @param index position of the cell (row * 9 + column)
+     * @param value value in range 1-9, or 0 for blank cell
+     */
+    void change(int index, int value) {
+        if(journalSize == journal.length)
+            journal = Arrays.copyOf(journal, journal.length * 2);
+
+        journal[journalSize++] = index << 4 | values[index];
+        set(index, value);
+    }
+
+    /**
+     * @return position in the journal, to which changes can be undone later
+     */
+    int mark() {
+        return journalSize;
+    }
+
+    /**
+     * Undoes the changes made after the mark, from the last one
+     * @param mark position in the journal returned by mark()
+     */
+    void undo(int mark) {
+        while(journalSize > mark) {
+            int entry = journal[--journalSize];
+            set(entry >>> 4, entry & 0x0F);
+        }
+    }
+
+    /**
+     * Forgets all changes in the journal, so that they cannot be undone anymore
+     */
+    void clearJournal() {
+        journalSize = 0;
+    }
+
+    /**
+     * @param index
+     * @param value
+     * @return true, if value is not used in the row, column and block of given cell
+     */
+    boolean isValid(int index, int value) {
+        return constraints.isValid(ROWS[index], COLUMNS[index], BLOCKS[index], value);
+    }
+
+    /**
+     * @param index
+     * @return mask of values which are not used in the row, column and block of given cell
+     */
+    int candidates(int index) {
+        return constraints.candidates(ROWS[index], COLUMNS[index], BLOCKS[index]);
+    }
+
+    /**
+     * Overwrites this grid with values and constraints of other grid
+     * @param otherGrid
+     */
+    void copyFrom(Grid otherGrid) {
+        System.arraycopy(otherGrid.values, 0, values, 0, SIZE);
+        constraints.copyFrom(otherGrid.constraints);
+        blankCount = otherGrid.blankCount;
+        journalSize = 0;
+    }
+
+    /**
+     * @return values of the grid, packed by PackedDigits
+     */
+    byte[] pack() {
+        return PackedDigits.pack(values);
+    }
+
+    /**
+     * @param packed values packed by PackedDigits
+     * @return Grid with the unpacked values
+     */
+    static Grid unpack(byte[] packed) {
+        Grid grid = new Grid();
+        for(int index = 0; index < SIZE; index++)
+            grid.set(index, PackedDigits.get(packed, index));
+
+        return grid;
+    }
+
+    /**
+     * @param board
+     * @return Grid with the current values of board's cells
+     */
+    static Grid of(Board board) {
+        Grid grid = new Grid();
+        for(Cell[] row : board.getGrid())
+            for(Cell cell : row)
+                grid.set(index(cell.getRow(), cell.getColumn()), cell.getValue());
+
+        return grid;
+    }
+
+    /**
+     * Returns positions of all cells in the order, in which they should be digged
+     * @param sequence
+     * @return array with indexes of cells
+     */
+    static int[] order(Sequence sequence) {
+        return order(sequence, new Random());
+    }
+
+    /**
+     * @param sequence
+     * @param random source of the shuffle of RANDOM sequence, e.g. seeded so that the order can be repeated
+     * @return array with indexes of cells in the order, in which they should be digged
+     */
+    static int[] order(Sequence sequence, Random random) {
+        int[] order = new int[SIZE];
+
+        switch(sequence) {
+            case LINEAR:
+                for(int index = 0; index < SIZE; index++)
+                    order[index] = index;
+                break;
+            case S_FORM:
+                // every second row is wandered from right to left
+                for(int index = 0; index < SIZE; index++) {
+                    int row = index / 9;
+                    int col = (row + 1) % 2 == 0 ? 8 - index % 9 : index % 9;
+                    order[index] = index(row, col);
+                }
+                break;
+            default:
+                for(int index = 0; index < SIZE; index++)
+                    order[index] = index;
+                shuffle(order, random);
+        }
+
+        return order;
+    }
+
+    private static void shuffle(int[] order, Random random) {
+        for(int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+        }
+    }
+}
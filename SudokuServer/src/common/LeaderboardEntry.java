@@ -0,0 +1,81 @@
+package common;
+
+import java.io.Serializable;
+
+/**
+ * SudokuServer/common: LeaderboardEntry.java
+ * Represents one solved game in the leaderboard of its level
+ */
+public class LeaderboardEntry implements Serializable, Comparable<LeaderboardEntry> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * LeaderboardEntry has:
+     *  - username - who solved the game
+     *  - level - difficulty level of the game
+     *  - milliseconds - how long solving took
+     *  - gameId - game, which was solved; it orders entries with the same time
+     */
+    private final String username;
+    private final LevelType level;
+    private final long milliseconds;
+    private final long gameId;
+
+    public LeaderboardEntry(String username, LevelType level, long milliseconds, long gameId) {
+        this.username = username != null ? username : "unknown";
+        this.level = level;
+        this.milliseconds = Math.max(0, milliseconds);
+        this.gameId = gameId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public LevelType getLevel() {
+        return level;
+    }
+
+    public long getMilliseconds() {
+        return milliseconds;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    /**
+     * Faster time comes first; entries with the same time are ordered by game id
+     * @param other
+     * @return
+     */
+    @Override
+    public int compareTo(LeaderboardEntry other) {
+        int byTime = Long.compare(milliseconds, other.milliseconds);
+        return byTime != 0 ? byTime : Long.compare(gameId, other.gameId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(obj == this)
+            return true;
+
+        if(!(obj instanceof LeaderboardEntry))
+            return false;
+
+        LeaderboardEntry otherEntry = (LeaderboardEntry) obj;
+        return milliseconds == otherEntry.milliseconds && gameId == otherEntry.gameId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(milliseconds) * 31 + Long.hashCode(gameId);
+    }
+
+    @Override
+    public String toString() {
+        long totalSeconds = milliseconds / 1000;
+        return String.format("%-10s %s %02d:%02d:%02d", username, level,
+                totalSeconds / 3600, (totalSeconds / 60) % 60, totalSeconds % 60);
+    }
+}
@@ -0,0 +1,89 @@
+package common;
+
+/**
+ * SudokuServer/common: PackedDigits.java
+ * Packs the 81 values of Sudoku grid two per byte (4 bits each), so that a grid takes 41 bytes
+ */
+public final class PackedDigits {
+    /**
+     * Number of values of packed grid (Grid.SIZE, which is not visible outside of this package)
+     */
+    public static final int VALUES = Grid.SIZE;
+
+    /**
+     * Number of bytes of packed grid
+     */
+    public static final int LENGTH = (Grid.SIZE + 1) / 2;
+
+    private PackedDigits() {
+    }
+
+    /**
+     * @param values 81 values in row-major order, 0 for blank cells
+     * @return packed values; the value with even index is in the high 4 bits of a byte
+     */
+    public static byte[] pack(byte[] values) {
+        byte[] packed = new byte[LENGTH];
+        for(int index = 0; index < Grid.SIZE; index++) {
+            int value = values[index] & 0x0F;
+            packed[index / 2] |= (byte) (index % 2 == 0 ? value << 4 : value);
+        }
+        return packed;
+    }
+
+    /**
+     * @param packed values packed by pack()
+     * @return 81 values in row-major order
+     */
+    public static byte[] unpack(byte[] packed) {
+        byte[] values = new byte[Grid.SIZE];
+        for(int index = 0; index < Grid.SIZE; index++)
+            values[index] = get(packed, index);
+        return values;
+    }
+
+    /**
+     * @param packed values packed by pack()
+     * @param index position of the cell (row * 9 + column)
+     * @return value of the cell
+     */
+    public static byte get(byte[] packed, int index) {
+        int pair = packed[index / 2];
+        return (byte) (index % 2 == 0 ? (pair >> 4) & 0x0F : pair & 0x0F);
+    }
+
+    /**
+     * Fingerprint of packed values, so that a solution can be recognized without knowing its values.
+     * Values are hashed with FNV-1a together with the game id, so the same solution has other fingerprint in other game
+     * @param gameId id of the game, to which the values belong
+     * @param packed values packed by pack()
+     * @return 64-bit fingerprint of the values
+     */
+    public static long fingerprint(long gameId, byte[] packed) {
+        long hash = 0xCBF29CE484222325L;
+        for(int shift = 0; shift < 64; shift += 8)
+            hash = (hash ^ ((gameId >>> shift) & 0xFF)) * 0x100000001B3L;
+        for(byte pair : packed)
+            hash = (hash ^ (pair & 0xFF)) * 0x100000001B3L;
+
+        // mix the bits, so that similar grids have very different fingerprints
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * @param packed
+     * @return true, if packed has correct length and all values are in range 0-9
+     */
+    public static boolean isValid(byte[] packed) {
+        if(packed == null || packed.length != LENGTH)
+            return false;
+
+        for(int index = 0; index < Grid.SIZE; index++) {
+            if(get(packed, index) > 9)
+                return false;
+        }
+        return true;
+    }
+}
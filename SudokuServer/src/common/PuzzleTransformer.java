@@ -0,0 +1,83 @@
+package common;
+
+import java.util.Random;
+
+/**
+ * SudokuServer/common: PuzzleTransformer.java
+ * Turns a Sudoku grid into an equivalent one, which keeps its number of solutions and difficulty:
+ *  - digits are relabeled
+ *  - bands (three rows) are swapped, and rows are swapped inside each band
+ *  - stacks (three columns) are swapped, and columns are swapped inside each stack
+ *  - the grid is transposed
+ * A puzzle and its solution have to be transformed by the same transformer.
+ */
+final class PuzzleTransformer {
+    /**
+     * PuzzleTransformer has:
+     *  - cells - for each cell of the new grid, position of the cell of the old grid, from which it takes its value
+     *  - digits - new value for each old value; 0 (blank cell) stays 0
+     */
+    private final int[] cells = new int[Grid.SIZE];
+    private final int[] digits = new int[10];
+
+    /**
+     * Creates a random transformation out of 9! * 6^8 * 2 possible ones
+     * @param random
+     */
+    PuzzleTransformer(Random random) {
+        int[] rows = permuteLines(random);
+        int[] columns = permuteLines(random);
+        boolean transposed = random.nextBoolean();
+
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++) {
+                int source = Grid.index(rows[row], columns[col]);
+                cells[transposed ? Grid.index(col, row) : Grid.index(row, col)] = source;
+            }
+        }
+
+        int[] values = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+        shuffle(values, random);
+        for(int value = 1; value <= 9; value++)
+            digits[value] = values[value - 1];
+    }
+
+    /**
+     * @param grid
+     * @return new Grid with the relabeled values of the grid moved to their new positions
+     */
+    Grid apply(Grid grid) {
+        Grid transformed = new Grid();
+        for(int index = 0; index < Grid.SIZE; index++)
+            transformed.set(index, digits[grid.get(cells[index])]);
+
+        return transformed;
+    }
+
+    /**
+     * @param random
+     * @return for each new row (or column), the old one; lines move only together with their band (or stack)
+     */
+    private static int[] permuteLines(Random random) {
+        int[] bands = {0, 1, 2};
+        shuffle(bands, random);
+
+        int[] lines = new int[9];
+        for(int band = 0; band < 3; band++) {
+            int[] inBand = {0, 1, 2};
+            shuffle(inBand, random);
+            for(int i = 0; i < 3; i++)
+                lines[band * 3 + i] = bands[band] * 3 + inBand[i];
+        }
+        return lines;
+    }
+
+    private static void shuffle(int[] items, Random random) {
+        for(int i = items.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = items[i];
+            items[i] = items[j];
+            items[j] = temp;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package common;
+
+/**
+ * SudokuServer/common: SolutionCounter.java
+ * Defines an algorithm, which counts solutions of Sudoku grid
+ */
+interface SolutionCounter {
+    /**
+     * Sets the grid, which solutions are counted
+     * @param grid
+     */
+    void setGrid(Grid grid);
+
+    /**
+     * Counts the solutions of the grid, but stops as soon as limit is reached.
+     * The grid has the same values after counting as before it.
+     * @param limit maximum number of solutions to be found
+     * @return number of found solutions, not more than limit
+     */
+    int countSolutions(int limit);
+
+    /**
+     * Checks if the grid has a solution, in which the blank cell has other value than the excluded one.
+     * When the cell is just digged from a puzzle with unique solution, in which it had the excluded value,
+     * the puzzle stays unique exactly if there is no such solution; so searching stops at the first one found.
+     * The grid has the same values after checking as before it.
+     * @param grid grid with blank cell at index; the counter is set to it
+     * @param index position of the blank cell
+     * @param excludedValue value, which the cell is not allowed to have
+     * @return true, if such solution exists
+     */
+    default boolean hasOtherSolution(Grid grid, int index, int excludedValue) {
+        setGrid(grid);
+        int others = grid.candidates(index) & ~Constraints.bit(excludedValue);
+
+        while(others != 0) {
+            int bit = Integer.lowestOneBit(others);
+            others ^= bit;
+
+            grid.set(index, Constraints.valueOf(bit));
+            int found = countSolutions(1);
+            grid.set(index, 0);
+
+            if(found > 0)
+                return true;
+        }
+        return false;
+    }
+}
@@ -4,85 +4,358 @@ package common;
  * SudokuServer/common: Solver.java
  * Solving sudoku boards
  */
-public class Solver {
+public class Solver implements SolutionCounter {
     /**
      * Solver has:
-     *  - board, which has to be solved
-     *  - count, which holds number of solutions
+     *  - grid, which has to be solved
+     *  - propagation - whether naked singles, hidden singles and choosing the most constrained cell are used
+     *  - trail - cells filled in by propagation, so that they can be cleared when backtracking
+     *  - blanks, guesses, remaining, marks - explicit stack of the search: guessed cell, values still to try
+     *    and size of trail before the guess, for each depth
+     * All arrays are allocated once, so solving does not create garbage and one Solver can be reused by a thread
      */
-    private Board board;
-    private int count = 0;
+    private Grid grid;
+    private final boolean propagation;
+    private final int[] trail = new int[Grid.SIZE];
+    private int trailSize = 0;
+    private final int[] blanks = new int[Grid.SIZE];
+    private final int[] guesses = new int[Grid.SIZE];
+    private final int[] remaining = new int[Grid.SIZE];
+    private final int[] marks = new int[Grid.SIZE];
 
-    void setBoard(Board board){
-        if(board != null)
-            this.board = board;
+    public Solver() {
+        this(false);
+    }
 
-        count = 0;
+    public Solver(boolean propagation) {
+        this.propagation = propagation;
     }
 
     /**
-     * Solves a sudoku board, starting from given row and column, and counts the solutions. Uses backtracking algorithm.
-     * It helps in defining if a board is unique, so it only needs to find 2 solutions top to know if it is not.
-     * @param row
-     * @param col
-     * @return 0, 1 or 2, depending on how much solutions it found
+     * Called before each value is tried by a search. It does nothing, so the JIT removes the call,
+     * but a subclass can give up a search, which takes too long, by throwing from it (the benchmark does);
+     * the grid is left as it is then
      */
-    int countSolutions(int row, int col) {
-        if(row == 9) {
-            // row 9 does not exist, overflow back to 0
-            row = 0;
-            if(++col == 9)
-                // column 9 does not exist, so end of grid is reached
-                // which means that 1 more solution is found
-                return count + 1;
+    void tryingValue() {
+    }
+
+    @Override
+    public void setGrid(Grid grid){
+        if(grid != null)
+            this.grid = grid;
+
+        trailSize = 0;
+    }
+
+    /**
+     * Counts the solutions of the whole grid. It helps in defining if a board is unique,
+     * so it only needs to find 2 solutions top to know if it is not.
+     * @param limit maximum number of solutions to be found
+     * @return number of found solutions, not more than limit
+     */
+    @Override
+    public int countSolutions(int limit) {
+        if(limit <= 0) return 0;
+
+        int found;
+        if(propagation) {
+            trailSize = 0;
+            found = searchWithPropagation(limit);
+            clearTo(0);
+        }
+        else {
+            int blankCount = collectBlanks();
+            found = search(blankCount, limit, Constraints.ALL_VALUES);
+            for(int depth = 0; depth < blankCount; depth++)
+                grid.set(blanks[depth], 0);
         }
 
-        // skip cells which already have values
-        if(!board.getCell(row, col).isBlank())
-            return countSolutions(row + 1, col);
+        return found;
+    }
 
-        // filling values until they are valid
-        for(int value = 1; value <= 9 && count < 2; ++value) {
-            if(board.isValid(board.getCell(row, col), value)) {
-                board.getCell(row, col).setValue(value);
+    /**
+     * Searches for a solution, in which the blank cell has other value than the excluded one,
+     * guessing in that cell first only the other values; stops at the first found solution
+     * @param grid grid with blank cell at index
+     * @param index position of the blank cell
+     * @param excludedValue value, which the cell is not allowed to have
+     * @return true, if such solution exists
+     */
+    @Override
+    public boolean hasOtherSolution(Grid grid, int index, int excludedValue) {
+        setGrid(grid);
+        int others = this.grid.candidates(index) & ~Constraints.bit(excludedValue);
+        if(others == 0)
+            return false;
 
-                // add additional solutions
-                count = countSolutions(row + 1, col);
+        int found;
+        if(propagation) {
+            trailSize = 0;
+            found = searchWithPropagation(1, index, others);
+            clearTo(0);
+        }
+        else {
+            int blankCount = collectBlanks();
+            // the cell is moved to the front, so that it is guessed first
+            for(int depth = 0; depth < blankCount; depth++) {
+                if(blanks[depth] == index) {
+                    blanks[depth] = blanks[0];
+                    blanks[0] = index;
+                    break;
+                }
             }
+            found = search(blankCount, 1, others);
+            for(int depth = 0; depth < blankCount; depth++)
+                grid.set(blanks[depth], 0);
         }
 
-        // solution failed, so backtracking...
-        board.getCell(row, col).setValue(0);
-        return count;
+        return found > 0;
     }
 
     /**
-     * Only solves a sudoku board using backtracking algorithm. Helps in generating full sudoku board.
-     * @param row
-     * @param col
-     * @return true, if sudoku can be solved
+     * Solves the whole grid. Helps in generating full sudoku board.
+     * @return true, if sudoku can be solved; then the grid is left filled in
      */
-    boolean solve(int row, int col) {
-        if(row == 9) {
-            row = 0;
-            if(++col == 9)
-                return true;
+    boolean solve() {
+        if(propagation) {
+            trailSize = 0;
+            return searchWithPropagation(1) == 1;
         }
 
-        if(!board.getCell(row, col).isBlank())
-            return solve(row + 1, col);
+        return search(collectBlanks(), 1, Constraints.ALL_VALUES) == 1;
+    }
 
-        for(int value = 1; value <= 9; ++value) {
-            if(board.isValid(board.getCell(row, col), value)) {
-                board.getCell(row, col).setValue(value);
+    /**
+     * Saves blank cells in the order in which backtracking fills them in: column by column, top to bottom
+     * @return number of blank cells
+     */
+    private int collectBlanks() {
+        int blankCount = 0;
+        for(int col = 0; col < 9; col++) {
+            for(int row = 0; row < 9; row++) {
+                int index = Grid.index(row, col);
+                if(grid.isBlank(index))
+                    blanks[blankCount++] = index;
+            }
+        }
+        return blankCount;
+    }
 
-               if(solve(row + 1, col))
-                   return true;
+    /**
+     * Backtracking algorithm over the saved blank cells, filling only values taken from the mask of candidates.
+     * If limit is reached, the grid is left with the last found solution; else all blank cells are cleared again
+     * @param blankCount number of saved blank cells
+     * @param limit maximum number of solutions to be found
+     * @param firstValues mask of values, which are tried in the first saved cell
+     * @return number of found solutions, not more than limit
+     */
+    private int search(int blankCount, int limit, int firstValues) {
+        if(blankCount == 0)
+            return 1;
+
+        int found = 0;
+        int depth = 0;
+        remaining[0] = grid.candidates(blanks[0]) & firstValues;
+
+        while(depth >= 0) {
+            int index = blanks[depth];
+
+            // all values failed, so backtracking...
+            if(remaining[depth] == 0) {
+                grid.set(index, 0);
+                depth--;
+                continue;
+            }
+
+            tryingValue();
+            int bit = Integer.lowestOneBit(remaining[depth]);
+            remaining[depth] ^= bit;
+            grid.set(index, Constraints.valueOf(bit));
+
+            if(depth == blankCount - 1) {
+                // end of grid is reached, which means that 1 more solution is found
+                if(++found >= limit)
+                    return found;
+            }
+            else {
+                depth++;
+                remaining[depth] = grid.candidates(blanks[depth]);
             }
         }
 
-        board.getCell(row, col).setValue(0);
-        return false;
+        return found;
     }
-}
 
+    /**
+     * Fills in singles before each guess and guesses in the cell with fewest candidates.
+     * If limit is reached, the grid is left with the last found solution; else it is left as it was
+     * @param limit maximum number of solutions to be found
+     * @return number of found solutions, not more than limit
+     */
+    private int searchWithPropagation(int limit) {
+        return searchWithPropagation(limit, -1, 0);
+    }
+
+    /**
+     * Same as searchWithPropagation(limit), but if firstIndex is not negative,
+     * the first guess is made in that cell and only with given values
+     * @param limit maximum number of solutions to be found
+     * @param firstIndex blank cell, which is guessed first, or -1
+     * @param firstValues mask of values, which are tried in the first guessed cell
+     * @return number of found solutions, not more than limit
+     */
+    private int searchWithPropagation(int limit, int firstIndex, int firstValues) {
+        int found = 0;
+        int depth = -1;
+        boolean consistent;
+
+        if(firstIndex >= 0) {
+            depth = 0;
+            guesses[0] = firstIndex;
+            remaining[0] = firstValues;
+            marks[0] = trailSize;
+            consistent = false;
+        }
+        else
+            consistent = fillSingles();
+
+        while(true) {
+            if(consistent) {
+                int index = chooseCell();
+                if(index < 0) {
+                    // no blank cells are left
+                    if(++found >= limit)
+                        return found;
+                }
+                else {
+                    depth++;
+                    guesses[depth] = index;
+                    remaining[depth] = grid.candidates(index);
+                    marks[depth] = trailSize;
+                }
+            }
+
+            // try next value of the deepest guess, which still has values to try
+            consistent = false;
+            while(depth >= 0 && !consistent) {
+                clearTo(marks[depth]);
+
+                if(remaining[depth] == 0) {
+                    depth--;
+                    continue;
+                }
+
+                tryingValue();
+                int bit = Integer.lowestOneBit(remaining[depth]);
+                remaining[depth] ^= bit;
+                place(guesses[depth], Constraints.valueOf(bit));
+                consistent = fillSingles();
+            }
+
+            if(!consistent) {
+                clearTo(0);
+                return found;
+            }
+        }
+    }
+
+    /**
+     * Fills in all cells, which can have only one value (naked singles),
+     * and all values, which fit in only one cell of a row, column or block (hidden singles)
+     * @return false, if a contradiction is found, meaning the grid has no solution
+     */
+    private boolean fillSingles() {
+        boolean changed = true;
+
+        while(changed) {
+            changed = false;
+
+            // naked singles
+            for(int index = 0; index < Grid.SIZE; index++) {
+                if(!grid.isBlank(index)) continue;
+
+                int candidates = grid.candidates(index);
+                if(candidates == 0)
+                    return false;
+                if(Integer.bitCount(candidates) == 1) {
+                    place(index, Constraints.valueOf(candidates));
+                    changed = true;
+                }
+            }
+
+            // hidden singles
+            for(int[] unit : Grid.UNITS) {
+                int used = 0, once = 0, twice = 0;
+
+                for(int index : unit) {
+                    if(grid.isBlank(index)) {
+                        int candidates = grid.candidates(index);
+                        twice |= once & candidates;
+                        once |= candidates;
+                    }
+                    else
+                        used |= Constraints.bit(grid.get(index));
+                }
+
+                // a missing value does not fit anywhere in the unit
+                if((used | once) != Constraints.ALL_VALUES)
+                    return false;
+
+                int hidden = once & ~twice;
+                while(hidden != 0) {
+                    int bit = Integer.lowestOneBit(hidden);
+                    hidden ^= bit;
+
+                    for(int index : unit) {
+                        if(grid.isBlank(index) && (grid.candidates(index) & bit) != 0) {
+                            place(index, Constraints.valueOf(bit));
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return blank cell with fewest candidates, or -1 if there are no blank cells
+     */
+    private int chooseCell() {
+        int best = -1;
+        int fewest = 10;
+
+        for(int index = 0; index < Grid.SIZE && fewest > 2; index++) {
+            if(!grid.isBlank(index)) continue;
+
+            int candidates = Integer.bitCount(grid.candidates(index));
+            if(candidates < fewest) {
+                best = index;
+                fewest = candidates;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Sets value of a blank cell and remembers it in the trail
+     * @param index
+     * @param value
+     */
+    private void place(int index, int value) {
+        grid.set(index, value);
+        trail[trailSize++] = index;
+    }
+
+    /**
+     * Clears the cells from the trail, until it has given size
+     * @param size
+     */
+    private void clearTo(int size) {
+        while(trailSize > size)
+            grid.set(trail[--trailSize], 0);
+    }
+}
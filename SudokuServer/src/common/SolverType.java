@@ -0,0 +1,67 @@
+package common;
+
+/**
+ * SudokuServer/common: SolverType.java
+ * Represents algorithms, which can be used for checking if a puzzle has unique solution
+ */
+public enum SolverType {
+    BACKTRACKING,
+    PROPAGATION,
+    DANCING_LINKS;
+
+    /**
+     * Name of the system property, which selects the algorithm, e.g. -Dsudoku.solver=dancing_links
+     */
+    public static final String PROPERTY = "sudoku.solver";
+
+    /**
+     * Algorithm used if the property is missing or unknown
+     */
+    public static final SolverType DEFAULT = DANCING_LINKS;
+
+    /**
+     * @return new SolutionCounter object implementing the algorithm
+     */
+    SolutionCounter createCounter() {
+        switch(this) {
+            case PROPAGATION: return new Solver(true);
+            case DANCING_LINKS: return new DancingLinksSolver();
+            case BACKTRACKING: return new Solver();
+            default: return new Solver();
+        }
+    }
+
+    /**
+     * Reads the algorithm from the system property; DEFAULT is used if property is missing or unknown
+     * @return SolverType chosen for the server
+     */
+    public static SolverType fromProperty() {
+        String value = System.getProperty(PROPERTY, "");
+
+        for(SolverType type : values()) {
+            if(type.name().equalsIgnoreCase(value.trim()))
+                return type;
+        }
+
+        return DEFAULT;
+    }
+
+    @Override
+    public String toString() {
+        String solverType = "";
+
+        switch(this) {
+            case BACKTRACKING:
+                solverType = "backtracking";
+                break;
+            case PROPAGATION:
+                solverType = "propagation";
+                break;
+            case DANCING_LINKS:
+                solverType = "dancing links";
+                break;
+        }
+
+        return solverType;
+    }
+}
@@ -1,6 +1,10 @@
 package common;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * SudokuServer/common: SudokuGame.java
@@ -9,18 +13,51 @@ import java.util.*;
 public class SudokuGame {
     /**
      * Sudoku Game has:
-     *  - solver, which helps generate sudoku, and checks user's board for correct solution
-     *  - board
-     *  - blankCells - list of cells with value of 0
-     *  - limitBlankCells - number of blanks cells, depending on the difficulty level
+     *  - gameId - identifies the game, so that it can be found again by the server
+     *  - solverType - algorithm, which counts solutions of the puzzle while digging holes
+     *  - board - Board object, which is built from the grids when the puzzle is ready
+     *  - solutionBoard - read-only Board with the solution, built once and shared by all requests for it
+     *  - level, packedPuzzle, packedSolution - level and packed values of the puzzle and its solution,
+     *    so that the game can be stored compactly
+     *  - timeRecorded - time of solving the game is already recorded, or the solution was shown,
+     *    so no time is recorded for the game anymore
+     * Everything else used while generating is local to the call, so games can be generated on many threads at once.
+     * Each thread keeps its own solvers, which are reused for every game it generates:
+     *  - SOLVERS - solver, which fills in the full board; it fills in singles and guesses in the most constrained
+     *    cells, so that sparse grids are solved fast
+     *  - COUNTERS - counters of every SolverType, which count solutions while digging holes
+     * If sudoku.dig.parallel is true, holes of one puzzle are checked by many threads (see digHolesInParallel).
      */
-    private Solver solver;
-    private Board board;
-    private List<Cell> blankCells;
-    private int limitBlankCells;
+    static final String PARALLEL_DIG_PROPERTY = "sudoku.dig.parallel";
+
+    private static final ThreadLocal<Solver> SOLVERS = ThreadLocal.withInitial(() -> new Solver(true));
+    private static final ThreadLocal<SolutionCounter[]> COUNTERS =
+            ThreadLocal.withInitial(() -> new SolutionCounter[SolverType.values().length]);
+
+    private final long gameId;
+    private final SolverType solverType;
+    private volatile Board board;
+    private volatile Board solutionBoard;
+    private volatile LevelType level;
+    private volatile byte[] packedPuzzle;
+    private volatile byte[] packedSolution;
+    private final AtomicBoolean timeRecorded = new AtomicBoolean();
 
     public SudokuGame() {
-        solver = new Solver();
+        this(0);
+    }
+
+    public SudokuGame(long gameId) {
+        this(gameId, SolverType.fromProperty());
+    }
+
+    public SudokuGame(SolverType solverType) {
+        this(0, solverType);
+    }
+
+    public SudokuGame(long gameId, SolverType solverType) {
+        this.gameId = gameId;
+        this.solverType = solverType != null ? solverType : SolverType.DEFAULT;
         board = new Board();
     }
 
@@ -30,143 +67,376 @@ public class SudokuGame {
      * @return Board object with valid Sudoku puzzle
      */
     public Board generateGame(LevelType level) {
-        board = new Board();
-
-        // using Las Vegas algorithm to yield a puzzle with 11 random given cell's values
-        lasVegas();
+        Grid grid;
+        Solver solver = SOLVERS.get();
 
+        // using Las Vegas algorithm to yield a puzzle with 11 random given cell's values;
         // generates full Sudoku board, using Solver to solve the grid yield by lasVegas()
-        generateFullBoard();
-        saveSolution();
+        // random givens may have no solution, so then they are generated again
+        do {
+            grid = new Grid();
+            lasVegas(grid);
+        } while(!generateFullBoard(grid, solver));
+        Grid solution = saveSolution(grid);
 
         // digs a bunch of random holes, so that they can be spread evenly
-        randomizeHoles(level);
+        boolean parallel = Boolean.getBoolean(PARALLEL_DIG_PROPERTY);
+        randomizeHoles(grid, level, parallel);
 
         // get number of blank cells for current board and dig same number of holes in board
-        limitBlankCells = level.getBlankCells();
-        board.setOrder(level.getSequenceType());
-        digHoles();
-        board.saveCellValues();
+        digHoles(grid, level.getSequenceType(), level.getBlankCells(), parallel);
 
-        return board;
+        // the puzzle is converted to Board object only when it is ready to be sent
+        return setPuzzle(level, grid, solution);
     }
 
     /**
-     * Generates full Sudoku board, using Solver to fill in the blank cells
+     * Creates a game from a puzzle, which was generated and packed before
+     * @param gameId
+     * @param level difficulty level of the puzzle
+     * @param packedPuzzle values of the puzzle, packed by PackedDigits
+     * @param packedSolution values of the solution, packed by PackedDigits
+     * @return SudokuGame with the given puzzle
      */
-    private void generateFullBoard() {
-        solver.setBoard(board);
-        solver.solve(0, 0);
+    public static SudokuGame fromPacked(long gameId, LevelType level, byte[] packedPuzzle, byte[] packedSolution) {
+        if(level == null || !PackedDigits.isValid(packedPuzzle) || !PackedDigits.isValid(packedSolution))
+            throw new IllegalArgumentException("Packed puzzle is not valid");
+
+        SudokuGame game = new SudokuGame(gameId);
+        game.setPuzzle(level, Grid.unpack(packedPuzzle), Grid.unpack(packedSolution));
+        return game;
     }
 
     /**
-     * If level difficulty is medium or hard, dig 30 holes as a start, so that blank cell are spread evenly
-     * @param level
+     * Creates a game with a random puzzle, which is equivalent to the puzzle of the seed game:
+     * it has other digits and positions of cells, but the same number of blank cells, unique solution and difficulty
+     * @param gameId
+     * @param seed game with generated puzzle
+     * @return SudokuGame with the transformed puzzle
      */
-    private void randomizeHoles(LevelType level) {
-        if(level.equals(LevelType.MEDIUM) || level.equals(LevelType.HARD)) {
-            limitBlankCells = 30;
-            board.setOrder(Sequence.RANDOM);
+    public static SudokuGame fromSeed(long gameId, SudokuGame seed) {
+        LevelType level = seed.level;
+        byte[] puzzle = seed.packedPuzzle;
+        byte[] solution = seed.packedSolution;
+        if(level == null || puzzle == null || solution == null)
+            throw new IllegalArgumentException("Seed game has no generated puzzle");
 
-            digHoles();
-        }
+        PuzzleTransformer transformer = new PuzzleTransformer(ThreadLocalRandom.current());
+        SudokuGame game = new SudokuGame(gameId, seed.solverType);
+        game.setPuzzle(level, transformer.apply(Grid.unpack(puzzle)), transformer.apply(Grid.unpack(solution)));
+        return game;
     }
 
     /**
-     * Dig holes (blank cells) in full Sudoku board. The result must be a valid Sudoku puzzle with unique solution
+     * Saves the ready puzzle and builds Board objects of the puzzle and its solution from it
+     * @param level
+     * @param puzzle
+     * @param solution
+     * @return Board object with the puzzle
      */
-    private void digHoles() {
-        ListIterator<Cell> iterator = board.iterator();
-        board.saveCellValues();
+    private Board setPuzzle(LevelType level, Grid puzzle, Grid solution) {
+        byte[] packedValues = solution.pack();
 
-        while(iterator.hasNext()) {
-            Cell currentCell = iterator.next();
-            currentCell.saveValue();
+        Board newBoard = Board.fromGrid(puzzle, solution);
+        newBoard.setOrder(level.getSequenceType());
+        newBoard.setGameId(gameId);
+        newBoard.setSolutionFingerprint(PackedDigits.fingerprint(gameId, packedValues));
 
-            if(currentCell.isBlank()) continue;
-            else currentCell.setValue(0);
+        Board newSolution = Board.fromGrid(solution, solution);
+        newSolution.setGameId(gameId);
+        newSolution.seal();
 
-            solver.setBoard(board);
+        this.level = level;
+        this.packedPuzzle = puzzle.pack();
+        this.packedSolution = packedValues;
+        solutionBoard = newSolution;
+        board = newBoard;
+        return newBoard;
+    }
 
+    /**
+     * @param solverType
+     * @return SolutionCounter of given type, owned by the current thread
+     */
+    private static SolutionCounter getCounter(SolverType solverType) {
+        SolutionCounter[] counters = COUNTERS.get();
+        int type = solverType.ordinal();
 
-            if(isUnique())
-                currentCell.saveValue();
-            else
-                board.loadSavedValues();
+        if(counters[type] == null)
+            counters[type] = solverType.createCounter();
 
-            blankCells = getBlankCells(board);
+        return counters[type];
+    }
 
-            if(isOutOfLimits()) break;
-            }
+    /**
+     * Generates full Sudoku board, using Solver to fill in the blank cells
+     * @param grid
+     * @param solver
+     * @return true, if the grid could be filled in
+     */
+    private static boolean generateFullBoard(Grid grid, Solver solver) {
+        solver.setGrid(grid);
+        return solver.solve();
     }
 
     /**
-     * Saves the solution for Sudoku puzzle, before it has holes
+     * If level difficulty is medium or hard, dig 30 holes as a start, so that blank cell are spread evenly
+     * @param grid
+     * @param level
+     * @param parallel whether holes are checked by many threads
      */
-    private void saveSolution() {
-        for(Cell cell : board.getCells())
-            cell.setCorrectValue();
+    private void randomizeHoles(Grid grid, LevelType level, boolean parallel) {
+        if(level.equals(LevelType.MEDIUM) || level.equals(LevelType.HARD))
+            digHoles(grid, Sequence.RANDOM, 30, parallel);
     }
 
     /**
-     * Determines if current Sudoku puzzle is unique. Sudoku puzzle is considered unique if has only one solution
-     * @return true, if Solver found only one solution
+     * Digs holes with the SolverType of this game, by the current thread or by many threads
+     * @param grid
+     * @param sequence order in which cells are digged
+     * @param limitBlankCells number of blanks cells, depending on the difficulty level
+     * @param parallel whether holes are checked by many threads
      */
-    private boolean isUnique() {
-        return solver.countSolutions(0,0) == 1;
+    private void digHoles(Grid grid, Sequence sequence, int limitBlankCells, boolean parallel) {
+        if(parallel)
+            digHolesInParallel(grid, sequence, limitBlankCells, solverType, ForkJoinPool.commonPool());
+        else
+            digHoles(grid, sequence, limitBlankCells, getCounter(solverType));
     }
 
     /**
-     * @return true, if number of bank cells is reached already
+     * Dig holes (blank cells) in full Sudoku board. The result must be a valid Sudoku puzzle with unique solution
+     * @param grid
+     * @param sequence order in which cells are digged
+     * @param limitBlankCells number of blanks cells, depending on the difficulty level
+     * @param counter searches for other solutions of the puzzle after each digged hole
      */
-    private boolean isOutOfLimits() {
-        if(blankCells != null)
-            return blankCells.size() >= limitBlankCells;
-        else return false;
+    static void digHoles(Grid grid, Sequence sequence, int limitBlankCells, SolutionCounter counter) {
+        digHoles(grid, Grid.order(sequence), limitBlankCells, counter);
     }
 
     /**
-     * @param board
-     * @return List of cells with value of 0 (blank cells)
+     * @param grid
+     * @param order indexes of cells in the order, in which they are digged (see Grid.order)
+     * @param limitBlankCells number of blanks cells, depending on the difficulty level
+     * @param counter searches for other solutions of the puzzle after each digged hole
      */
-    private static List<Cell> getBlankCells(Board board) {
-        List<Cell> blanks = new ArrayList<>();
-        for(Cell cell : board.getCells()) {
-            if(cell.isBlank()) {
-                blanks.add(cell);
+    static void digHoles(Grid grid, int[] order, int limitBlankCells, SolutionCounter counter) {
+        for(int index : order) {
+            if(grid.getBlankCount() >= limitBlankCells) break;
+            if(grid.isBlank(index)) continue;
+
+            // every hole is journaled, so if it is not accepted, only this change is undone
+            int mark = grid.mark();
+            int value = grid.get(index);
+            grid.change(index, 0);
+
+            if(!isUnique(grid, index, value, counter))
+                grid.undo(mark);
+        }
+
+        grid.clearJournal();
+    }
+
+    /**
+     * Digs the same holes as digHoles(), but checks a window of next cells at once, each by a task of the pool
+     * on its own copy of the grid. Each cell is checked speculatively, as if all cells before it in the window
+     * were digged too. Results are used in the order of the sequence:
+     *  - an accepted cell is digged; it was checked with the same or more holes than it really gets,
+     *    and a puzzle with fewer holes cannot have more solutions
+     *  - the first rejected cell was checked with exactly the holes it really gets, so it stays rejected
+     *    (digging more holes later only adds solutions)
+     *  - a cell rejected after that was checked with a hole, which is not digged, so it is checked again
+     *    in the next window, which starts with it
+     * So the result is the same as when the cells are digged one by one, and a window usually decides all its cells.
+     * Each task searches on a copy of the grid, so on a single core this is slower than digHoles().
+     * @param grid
+     * @param sequence order in which cells are digged
+     * @param limitBlankCells number of blanks cells, depending on the difficulty level
+     * @param solverType algorithm, which each thread uses to search for other solutions
+     * @param pool threads, which check the cells
+     */
+    static void digHolesInParallel(Grid grid, Sequence sequence, int limitBlankCells, SolverType solverType,
+                                   ForkJoinPool pool) {
+        digHolesInParallel(grid, Grid.order(sequence), limitBlankCells, solverType, pool);
+    }
+
+    /**
+     * @param grid
+     * @param order indexes of cells in the order, in which they are digged (see Grid.order)
+     * @param limitBlankCells number of blanks cells, depending on the difficulty level
+     * @param solverType algorithm, which each thread uses to search for other solutions
+     * @param pool threads, which check the cells
+     */
+    static void digHolesInParallel(Grid grid, int[] order, int limitBlankCells, SolverType solverType,
+                                   ForkJoinPool pool) {
+        int window = Math.max(2, pool.getParallelism());
+        boolean[] rejected = new boolean[Grid.SIZE];
+        int[] positions = new int[window];
+        int next = 0;
+
+        while(next < order.length && grid.getBlankCount() < limitBlankCells) {
+            // the next cells, which are neither digged nor rejected
+            int count = 0;
+            for(int position = next; position < order.length && count < window; position++) {
+                int index = order[position];
+                if(!grid.isBlank(index) && !rejected[index])
+                    positions[count++] = position;
+            }
+            if(count == 0) break;
+
+            Grid snapshot = new Grid(grid);
+            List<ForkJoinTask<Boolean>> checks = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                int last = i;
+                checks.add(pool.submit(() -> {
+                    // the cell is checked with all cells before it in the window digged
+                    Grid copy = new Grid(snapshot);
+                    for(int j = 0; j < last; j++)
+                        copy.set(order[positions[j]], 0);
+
+                    int index = order[positions[last]];
+                    int value = copy.get(index);
+                    copy.set(index, 0);
+                    return isUnique(copy, index, value, getCounter(solverType));
+                }));
             }
+
+            boolean rejectedBefore = false;
+            next = positions[count - 1] + 1;
+            for(int i = 0; i < count && grid.getBlankCount() < limitBlankCells; i++) {
+                int index = order[positions[i]];
+                if(checks.get(i).join())
+                    grid.set(index, 0);
+                else if(!rejectedBefore) {
+                    rejected[index] = true;
+                    rejectedBefore = true;
+                }
+                else {
+                    // checked with a hole, which is not digged; the next window starts with this cell
+                    next = positions[i];
+                    break;
+                }
+            }
+            // results of the remaining tasks are not needed
+            for(ForkJoinTask<Boolean> check : checks)
+                check.cancel(false);
         }
-        return blanks;
+    }
+
+    /**
+     * Saves the solution for Sudoku puzzle, before it has holes
+     * @param grid full Sudoku board
+     * @return copy of the full board
+     */
+    private static Grid saveSolution(Grid grid) {
+        return new Grid(grid);
+    }
+
+    /**
+     * Determines if current Sudoku puzzle is unique. Sudoku puzzle is considered unique if has only one solution.
+     * The puzzle was unique before the last hole was digged, so it is unique now,
+     * if no solution has other value in the digged cell
+     * @param grid puzzle with the last digged hole
+     * @param index position of the last digged hole
+     * @param value value, which was digged
+     * @param counter SolutionCounter, which searches for other solutions
+     * @return true, if no solution with other value in the digged cell is found
+     */
+    private static boolean isUnique(Grid grid, int index, int value, SolutionCounter counter) {
+        return !counter.hasOtherSolution(grid, index, value);
     }
 
     /**
      * Using Las Vegas algorithm to fill in empty Sudoku grid with 11 values.
      * The rest cells are filled in according to these givens later.
+     * @param grid empty grid
      */
-    private void lasVegas() {
+    static void lasVegas(Grid grid) {
+        lasVegas(grid, new Random());
+    }
+
+    /**
+     * Same as lasVegas(grid), with givens taken from the random source, so that they can be repeated
+     * @param grid empty grid
+     * @param random
+     */
+    static void lasVegas(Grid grid, Random random) {
         int givens = 11;
-        board.createGrid();
-        Random random = new Random();
 
         // generate 11 random givens
         for(int i = 0; i < givens; i++) {
-            int row = random.nextInt(9);
-            int col = random.nextInt(9);
+            int index = random.nextInt(Grid.SIZE);
 
             int randomValue;
             do {
                 randomValue = 1 + random.nextInt(9);
-            } while(!board.isValid(board.getCell(row, col), randomValue));
+            } while(!grid.isValid(index, randomValue));
 
-            board.getCell(row,col).setValue(randomValue);
+            grid.set(index, randomValue);
         }
     }
 
+    public long getGameId() {
+        return gameId;
+    }
+
+    public LevelType getLevel() {
+        return level;
+    }
+
+    /**
+     * @return values of the puzzle packed by PackedDigits, or null if no puzzle is generated yet
+     */
+    public byte[] getPackedPuzzle() {
+        return packedPuzzle != null ? packedPuzzle.clone() : null;
+    }
+
     /**
-     * @return Board object with correct solution for Sudoku puzzle
+     * @return values of the solution packed by PackedDigits, or null if no puzzle is generated yet
+     */
+    public byte[] getPackedSolution() {
+        return packedSolution != null ? packedSolution.clone() : null;
+    }
+
+    /**
+     * @return Board object with the generated Sudoku puzzle
+     */
+    public Board getBoard() {
+        return board;
+    }
+
+    /**
+     * Checks an answer against the packed solution saved when the puzzle was generated
+     * @param packedAnswer values of all cells, packed by PackedDigits
+     * @return true, if the answer is the correct solution
+     */
+    public boolean isSolution(byte[] packedAnswer) {
+        byte[] solution = packedSolution;
+        return solution != null && Arrays.equals(solution, packedAnswer);
+    }
+
+    /**
+     * @param answer Board with values of all cells
+     * @return true, if the board has the correct solution
+     */
+    public boolean isSolution(Board answer) {
+        return answer != null && isSolution(answer.pack());
+    }
+
+    /**
+     * Marks that the time of solving the game is recorded, or that it cannot be recorded anymore,
+     * because the solution was shown; only the first call succeeds
+     * @return true, if the time was not recorded before
+     */
+    public boolean markTimeRecorded() {
+        return timeRecorded.compareAndSet(false, true);
+    }
+
+    /**
+     * @return read-only Board object with correct solution for Sudoku puzzle, or null if no puzzle is generated yet
      */
     public Board getSolution() {
-        return board.getSolution();
+        return solutionBoard;
     }
 }
-
@@ -1,6 +1,7 @@
 package common;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -22,6 +23,11 @@ public class User implements Serializable {
     private long totalTimePlayed;
     private Map<GameOutcome, Integer> gameOutcomesStats;
 
+    /**
+     * Maximum length of username in bytes of UTF-8, so that it fits in a record of statistics file
+     */
+    public static final int MAX_USERNAME_BYTES = 31;
+
     public User(String username, Map<LevelType, Integer> difficultyLevelsPlayed, long totalTimePlayed,
                 Map<GameOutcome, Integer> gameOutcomesStats) {
         // Not sure if it makes sense
@@ -48,6 +54,14 @@ public class User implements Serializable {
         return username;
     }
 
+    /**
+     * @param username
+     * @return true, if statistics of the username can be recorded: it has at most MAX_USERNAME_BYTES bytes of UTF-8
+     */
+    public static boolean isRecordableUsername(String username) {
+        return username != null && username.getBytes(StandardCharsets.UTF_8).length <= MAX_USERNAME_BYTES;
+    }
+
     public void setUsername(String username) {
         if(username != null)
             this.username = username;
@@ -0,0 +1,158 @@
+package server;
+
+import common.SudokuGame;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SudokuServer/server: GameRegistry.java
+ * Keeps the games of all players, so that every player is answered about own puzzle
+ */
+class GameRegistry {
+    /**
+     * GameRegistry has:
+     *  - games - active games by their id
+     *  - ids - random source of game ids; ids are random 64-bit numbers, so that a player cannot guess
+     *    the ids of games of other players
+     *  - idleTimeout - games not used for this many milliseconds are removed
+     *  - evictor - thread, which periodically removes idle games
+     */
+    static final String TIMEOUT_PROPERTY = "sudoku.game.timeout";
+
+    private final Map<Long, Session> games;
+    private final Random ids;
+    private final long idleTimeout;
+    private final ScheduledExecutorService evictor;
+
+    GameRegistry() {
+        this(TimeUnit.MINUTES.toMillis(Long.getLong(TIMEOUT_PROPERTY, 120)));
+    }
+
+    GameRegistry(long idleTimeout) {
+        this.games = new ConcurrentHashMap<>();
+        this.ids = new SecureRandom();
+        this.idleTimeout = idleTimeout > 0 ? idleTimeout : TimeUnit.MINUTES.toMillis(120);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, this.idleTimeout / 4);
+        evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return unique id for a game, which is created outside of the registry; never 0
+     */
+    long nextId() {
+        long id;
+        do {
+            id = ids.nextLong();
+        } while(id == 0 || games.containsKey(id));
+
+        return id;
+    }
+
+    /**
+     * Registers a game, so that it can be found by its id; the time of solving the game is measured
+     * from when it is started (see start)
+     * @param game
+     */
+    void register(SudokuGame game) {
+        games.put(game.getGameId(), new Session(game));
+    }
+
+    /**
+     * @param gameId
+     * @return SudokuGame with given id, or null if it does not exist or was removed for being idle
+     */
+    SudokuGame get(long gameId) {
+        Session session = games.get(gameId);
+        if(session == null)
+            return null;
+
+        session.touch();
+        return session.game;
+    }
+
+    /**
+     * Starts measuring the time of solving the game, when the player opens it; only the first call starts it,
+     * so that the time cannot be made shorter by starting the game again
+     * @param gameId
+     * @return false, if the game does not exist
+     */
+    boolean start(long gameId) {
+        Session session = games.get(gameId);
+        if(session == null)
+            return false;
+
+        session.touch();
+        session.started.compareAndSet(Session.NOT_STARTED, System.nanoTime());
+        return true;
+    }
+
+    /**
+     * @param gameId
+     * @return milliseconds since the game was started, or -1 if it does not exist or is not started
+     */
+    long elapsed(long gameId) {
+        Session session = games.get(gameId);
+        if(session == null)
+            return -1;
+
+        long started = session.started.get();
+        if(started == Session.NOT_STARTED)
+            return -1;
+
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    void remove(long gameId) {
+        games.remove(gameId);
+    }
+
+    int size() {
+        return games.size();
+    }
+
+    /**
+     * Removes all games, which were not used longer than idleTimeout
+     */
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        games.values().removeIf(session -> now - session.lastAccess > idleTimeout);
+    }
+
+    void shutdown() {
+        evictor.shutdownNow();
+    }
+
+    /**
+     * A registered game with the time it was started by the player (System.nanoTime(), NOT_STARTED until then)
+     * and the time it was last used
+     */
+    private static class Session {
+        private static final long NOT_STARTED = Long.MIN_VALUE;
+
+        private final SudokuGame game;
+        private final AtomicLong started = new AtomicLong(NOT_STARTED);
+        private volatile long lastAccess;
+
+        Session(SudokuGame game) {
+            this.game = game;
+            touch();
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package server;
+
+import common.Board;
+import common.LevelType;
+import common.SudokuGame;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SudokuServer/server: GeneratorPool.java
+ * Bounded pool of worker threads, which generate Sudoku puzzles
+ */
+class GeneratorPool {
+    /**
+     * GeneratorPool has:
+     *  - executor - fixed number of workers (one per core by default) with bounded queue of waiting requests;
+     *    when the queue is full, a player's request is generated by the calling thread itself,
+     *    while a background task is not accepted
+     */
+    static final String THREADS_PROPERTY = "sudoku.generator.threads";
+
+    private final ThreadPoolExecutor executor;
+
+    GeneratorPool() {
+        this(Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    GeneratorPool(int threads) {
+        int workers = Math.max(1, threads);
+        AtomicInteger count = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workers * 4),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "sudoku-generator-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Starts generating a puzzle in the pool; if the pool is full, the puzzle is generated by the calling thread
+     * @param game SudokuGame, for which puzzle is generated
+     * @param level difficulty level of the puzzle
+     * @return Future, which completes with the Board of generated puzzle
+     */
+    Future<Board> submit(SudokuGame game, LevelType level) {
+        try {
+            return executor.submit(() -> game.generateGame(level));
+        }
+        catch(RejectedExecutionException e) {
+            FutureTask<Board> task = new FutureTask<>(() -> game.generateGame(level));
+            task.run();
+            return task;
+        }
+    }
+
+    /**
+     * Runs a background task in the pool, only if there is place for it
+     * @param task
+     * @return true, if the task is accepted
+     */
+    boolean trySubmit(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        }
+        catch(RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Generates a puzzle in the pool and waits for it
+     * @param game SudokuGame, for which puzzle is generated
+     * @param level difficulty level of the puzzle
+     * @return Board object with valid Sudoku puzzle
+     * @throws RemoteException if generating failed or was interrupted
+     */
+    Board generate(SudokuGame game, LevelType level) throws RemoteException {
+        return await(submit(game, level));
+    }
+
+    /**
+     * Waits for a puzzle, which is being generated
+     * @param future
+     * @return Board object with valid Sudoku puzzle
+     * @throws RemoteException if generating failed or was interrupted
+     */
+    static Board await(Future<Board> future) throws RemoteException {
+        try {
+            return future.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Generating of Sudoku was interrupted", e);
+        }
+        catch(ExecutionException e) {
+            throw new RemoteException("Error in generating Sudoku", e.getCause());
+        }
+    }
+
+    int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
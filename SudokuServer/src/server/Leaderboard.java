@@ -0,0 +1,85 @@
+package server;
+
+import common.LeaderboardEntry;
+import common.LevelType;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SudokuServer/server: Leaderboard.java
+ * Keeps the fastest solved games of every difficulty level
+ */
+class Leaderboard {
+    /**
+     * Leaderboard has:
+     *  - best - fastest games of each level, sorted from the fastest; lock-free, so many submissions can be
+     *    added at once
+     *  - sizes - number of entries in each set, counted separately, because size() of the set walks all of it
+     *  - limit - how many entries are kept for each level
+     */
+    static final String SIZE_PROPERTY = "sudoku.leaderboard.size";
+
+    private final Map<LevelType, ConcurrentSkipListSet<LeaderboardEntry>> best;
+    private final Map<LevelType, AtomicInteger> sizes;
+    private final int limit;
+
+    Leaderboard() {
+        this(Integer.getInteger(SIZE_PROPERTY, 10));
+    }
+
+    Leaderboard(int limit) {
+        this.limit = Math.max(1, limit);
+
+        best = new EnumMap<>(LevelType.class);
+        sizes = new EnumMap<>(LevelType.class);
+        for(LevelType level : LevelType.values()) {
+            best.put(level, new ConcurrentSkipListSet<>());
+            sizes.put(level, new AtomicInteger());
+        }
+    }
+
+    /**
+     * Adds a solved game, if it is one of the fastest of its level
+     * @param entry
+     * @return true, if the entry is added
+     */
+    boolean submit(LeaderboardEntry entry) {
+        ConcurrentSkipListSet<LeaderboardEntry> entries = best.get(entry.getLevel());
+        AtomicInteger size = sizes.get(entry.getLevel());
+
+        // most submissions are slower than all kept entries, so they are rejected without changing the set
+        if(size.get() >= limit && entry.compareTo(entries.last()) >= 0)
+            return false;
+
+        if(!entries.add(entry))
+            return false;
+
+        // the slowest entry is removed, so that the set does not grow over the limit
+        if(size.incrementAndGet() > limit) {
+            LeaderboardEntry removed = entries.pollLast();
+            if(removed != null)
+                size.decrementAndGet();
+            if(removed == entry)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param level
+     * @return the fastest entries of the level, from the fastest
+     */
+    List<LeaderboardEntry> top(LevelType level) {
+        List<LeaderboardEntry> top = new ArrayList<>(limit);
+        Iterator<LeaderboardEntry> entries = best.get(level).iterator();
+        while(entries.hasNext() && top.size() < limit)
+            top.add(entries.next());
+        return top;
+    }
+}
@@ -0,0 +1,438 @@
+package server;
+
+import common.CanonicalForm;
+import common.LevelType;
+import common.PackedDigits;
+import common.SudokuGame;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SudokuServer/server: PuzzleBank.java
+ * Stores generated puzzles on disk, so that they can be served again, also after restart of the server
+ *
+ * Every level has its own file "<level>.bank" with a header and fixed-width records:
+ *  - header (16 bytes): magic "SDKB", version (short), level (byte), reserved bytes
+ *  - record (84 bytes): level (byte), number of blank cells (byte), puzzle (41 bytes), solution (41 bytes);
+ *    puzzle and solution are packed by PackedDigits
+ * Records are read through a memory-mapped buffer, so record i is found at HEADER_SIZE + i * RECORD_SIZE
+ * without parsing the file. Records appended after mapping are read from the file, until their number reaches
+ * the number of mapped ones, and then the file is mapped again; so a growing bank is mapped O(log n) times.
+ * One mapping holds at most MAX_MAPPED_RECORDS records (2 GB), the records after them are always read from the file.
+ *
+ * Next to it, file "<level>.index" has the hash of canonical form (see CanonicalForm) of each record's puzzle,
+ * 8 bytes for record i at i * 8. The hashes of all levels are loaded to a PuzzleIndex, so a puzzle,
+ * which is equivalent to a stored one, is not stored again. Hashes missing in the file (e.g. a bank of an older server)
+ * are computed by a background thread after the bank is opened, as it takes minutes for a big bank; until it finishes,
+ * a puzzle equivalent to a stored one, which is not indexed yet, may be stored again.
+ */
+class PuzzleBank implements Closeable {
+    static final String DIRECTORY_PROPERTY = "sudoku.bank.dir";
+
+    static final int MAGIC = 0x53444B42;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 2 + 2 * PackedDigits.LENGTH;
+
+    /**
+     * Number of indexed puzzles, after which progress of the indexer is printed
+     */
+    private static final int PROGRESS_STEP = 50000;
+
+    /**
+     * The fewest records appended after mapping, for which the file is mapped again
+     */
+    private static final int MIN_REMAP_RECORDS = 1024;
+
+    /**
+     * The most records, which fit in one MappedByteBuffer
+     */
+    private static final int MAX_MAPPED_RECORDS = Integer.MAX_VALUE / RECORD_SIZE;
+
+    /**
+     * PuzzleBank has:
+     *  - files - bank file of each level
+     *  - index - hashes of canonical forms of all stored puzzles
+     *  - indexer - thread, which computes hashes missing in the index files (null if none are missing)
+     *  - closed - set on closing, so that the indexer stops
+     */
+    private final Map<LevelType, LevelFile> files;
+    private final PuzzleIndex index;
+    private Thread indexer;
+    private volatile boolean closed;
+
+    PuzzleBank() throws IOException {
+        this(new File(System.getProperty(DIRECTORY_PROPERTY, "puzzles")));
+    }
+
+    PuzzleBank(File directory) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create directory " + directory);
+
+        files = new EnumMap<>(LevelType.class);
+        index = new PuzzleIndex();
+        try {
+            for(LevelType level : LevelType.values())
+                files.put(level, new LevelFile(new File(directory, level + ".bank"),
+                        new File(directory, level + ".index"), level, index));
+        }
+        catch(IOException e) {
+            close();
+            throw e;
+        }
+
+        long missing = files.values().stream().mapToLong(LevelFile::missingHashes).sum();
+        if(missing > 0) {
+            indexer = new Thread(() -> indexMissing(missing), "puzzle-bank-indexer");
+            indexer.setDaemon(true);
+            indexer.start();
+        }
+    }
+
+    /**
+     * Computes hashes of the puzzles, which are missing in the index files, and prints progress
+     * @param missing number of the missing hashes
+     */
+    private void indexMissing(long missing) {
+        System.out.println("Indexing " + missing + " puzzle(s) of puzzle bank.");
+        long indexed = 0;
+        try {
+            for(LevelFile file : files.values()) {
+                for(int record = file.nextMissing(0); record >= 0; record = file.nextMissing(record + 1)) {
+                    if(closed)
+                        return;
+
+                    file.index(record);
+                    if(++indexed % PROGRESS_STEP == 0)
+                        System.out.println(indexed + " of " + missing + " puzzle(s) of puzzle bank are indexed.");
+                }
+            }
+            System.out.println("Puzzle bank is indexed.");
+        }
+        catch(IOException e) {
+            if(!closed) {
+                e.printStackTrace();
+                System.out.println("Error in indexing puzzle bank; it is indexed again on next start.");
+            }
+        }
+    }
+
+    /**
+     * @param level
+     * @return number of puzzles of the level in the bank
+     */
+    int size(LevelType level) {
+        return files.get(level).size();
+    }
+
+    /**
+     * Appends a generated game at the end of the bank of its level, if no equivalent puzzle is stored yet
+     * @param game SudokuGame with generated puzzle
+     * @return false, if the puzzle is equivalent to a stored one, so it is not stored
+     * @throws IOException
+     */
+    boolean append(SudokuGame game) throws IOException {
+        LevelType level = game.getLevel();
+        byte[] puzzle = game.getPackedPuzzle();
+        byte[] solution = game.getPackedSolution();
+        if(level == null || puzzle == null || solution == null)
+            throw new IllegalArgumentException("Game has no generated puzzle");
+
+        return files.get(level).append(puzzle, solution, CanonicalForm.hash(puzzle));
+    }
+
+
+    /**
+     * Reads a puzzle from the bank and creates a new game with it
+     * @param level
+     * @param index position of the puzzle in the bank of the level
+     * @param gameId id of the created game
+     * @return SudokuGame with the stored puzzle
+     * @throws IOException
+     */
+    SudokuGame read(LevelType level, int index, long gameId) throws IOException {
+        LevelFile file = files.get(level);
+        byte[] puzzle = new byte[PackedDigits.LENGTH];
+        byte[] solution = new byte[PackedDigits.LENGTH];
+
+        file.read(index, puzzle, solution);
+        return SudokuGame.fromPacked(gameId, level, puzzle, solution);
+    }
+
+    /**
+     * @param level
+     * @param gameId id of the created game
+     * @return SudokuGame with random puzzle of the level, or null if the bank of the level is empty
+     * @throws IOException
+     */
+    SudokuGame random(LevelType level, long gameId) throws IOException {
+        int size = size(level);
+        if(size == 0)
+            return null;
+
+        return read(level, ThreadLocalRandom.current().nextInt(size), gameId);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if(indexer != null) {
+            try {
+                // the indexer stops after the puzzle, which it indexes now
+                indexer.join();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        IOException error = null;
+        for(LevelFile file : files.values()) {
+            try {
+                file.close();
+            }
+            catch(IOException e) {
+                error = e;
+            }
+        }
+        if(error != null)
+            throw error;
+    }
+
+    /**
+     * Bank file of one level
+     */
+    private static class LevelFile implements Closeable {
+        /**
+         * LevelFile has:
+         *  - channel - opened for the whole life of the bank, records are appended through it
+         *  - mapped - read-only mapping of the records, which existed when it was created; mapped again,
+         *    when the records appended after it are as many as the mapped ones (at least MIN_REMAP_RECORDS);
+         *    it holds at most MAX_MAPPED_RECORDS records
+         *  - count - number of records in the file
+         *  - hashes - file with hash of canonical form of each record's puzzle
+         *  - index - hashes of puzzles stored in the bank, shared by all levels
+         *  - missing - records, which had no hash in the file when it was opened, until the indexer computes them
+         */
+        private final FileChannel channel;
+        private final FileChannel hashes;
+        private final PuzzleIndex index;
+        private final BitSet missing = new BitSet();
+        private final LevelType level;
+        private volatile MappedByteBuffer mapped;
+        private volatile int mappedCount;
+        private volatile int count;
+
+        LevelFile(File file, File hashFile, LevelType level, PuzzleIndex index) throws IOException {
+            this.level = level;
+            this.index = index;
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                hashes = FileChannel.open(hashFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            catch(IOException e) {
+                channel.close();
+                throw e;
+            }
+
+            if(channel.size() < HEADER_SIZE)
+                writeHeader();
+            else
+                checkHeader(file);
+
+            // a record, which was not written completely, is overwritten by the next append
+            count = (int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE);
+            map();
+            loadHashes();
+        }
+
+        int size() {
+            return count;
+        }
+
+        private void writeHeader() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).put((byte) level.ordinal());
+            header.rewind();
+            channel.write(header, 0);
+        }
+
+        private void checkHeader(File file) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+
+            if(header.getInt() != MAGIC || header.getShort() != VERSION || header.get() != level.ordinal())
+                throw new IOException("File " + file + " is not a puzzle bank of level " + level);
+        }
+
+        private void map() throws IOException {
+            int records = Math.min(count, MAX_MAPPED_RECORDS);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) records * RECORD_SIZE);
+            mappedCount = records;
+        }
+
+        /**
+         * Adds hashes of all records, which are in the file, to the index; the records, whose hashes are missing
+         * (the file is new, writing of a hash failed, or the indexer did not finish), are marked as missing.
+         * Hash 0 marks a missing one, as the file has zeros where the indexer did not write yet
+         * @throws IOException
+         */
+        private void loadHashes() throws IOException {
+            int stored = (int) Math.min(hashes.size() / 8, count);
+            ByteBuffer buffer = ByteBuffer.allocate(stored * 8);
+            while(buffer.hasRemaining()) {
+                if(hashes.read(buffer, buffer.position()) < 0)
+                    break;
+            }
+            buffer.flip();
+            for(int record = 0; buffer.hasRemaining(); record++) {
+                long hash = buffer.getLong();
+                if(hash != 0)
+                    index.add(hash);
+                else
+                    missing.set(record);
+            }
+
+            missing.set(stored, count);
+            // hashes of records, which were not written completely
+            hashes.truncate((long) count * 8);
+        }
+
+        /**
+         * @return number of records, whose hashes are missing
+         */
+        int missingHashes() {
+            return missing.cardinality();
+        }
+
+        /**
+         * @param from
+         * @return first record from the given one, whose hash is missing, or -1 if there is none
+         */
+        int nextMissing(int from) {
+            return missing.nextSetBit(from);
+        }
+
+        /**
+         * Computes the hash of the record and adds it to the index and to the file
+         * @param record record, whose hash is missing
+         * @throws IOException
+         */
+        void index(int record) throws IOException {
+            byte[] puzzle = new byte[PackedDigits.LENGTH];
+            byte[] solution = new byte[PackedDigits.LENGTH];
+            read(record, puzzle, solution);
+
+            long hash = CanonicalForm.hash(puzzle);
+            index.add(hash);
+            writeHash(record, hash);
+            missing.clear(record);
+        }
+
+        private void writeHash(int record, long hash) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(8).putLong(hash);
+            buffer.flip();
+            long position = (long) record * 8;
+            while(buffer.hasRemaining())
+                position += hashes.write(buffer, position);
+        }
+
+        /**
+         * Appends the record and its hash, if the hash is not in the index yet
+         * @param puzzle
+         * @param solution
+         * @param hash hash of canonical form of the puzzle
+         * @return false, if the hash is in the index already
+         * @throws IOException
+         */
+        synchronized boolean append(byte[] puzzle, byte[] solution, long hash) throws IOException {
+            // if writing fails, the hash stays in the index, so the puzzle is not stored later either
+            if(!index.add(hash))
+                return false;
+
+            int blanks = 0;
+            for(int cell = 0; cell < PackedDigits.VALUES; cell++) {
+                if(PackedDigits.get(puzzle, cell) == 0)
+                    blanks++;
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.put((byte) level.ordinal()).put((byte) blanks).put(puzzle).put(solution);
+            record.flip();
+
+            long position = HEADER_SIZE + (long) count * RECORD_SIZE;
+            while(record.hasRemaining())
+                position += channel.write(record, position);
+
+            writeHash(count, hash);
+            count++;
+            return true;
+        }
+
+        void read(int index, byte[] puzzle, byte[] solution) throws IOException {
+            if(index < 0 || index >= count)
+                throw new IndexOutOfBoundsException("No puzzle " + index + " in bank of level " + level);
+
+            if(index >= mappedCount) {
+                synchronized(this) {
+                    if(index >= mappedCount && mappedCount < MAX_MAPPED_RECORDS
+                            && count - mappedCount >= Math.max(mappedCount, MIN_REMAP_RECORDS))
+                        map();
+                }
+                if(index >= mappedCount) {
+                    readUnmapped(index, puzzle, solution);
+                    return;
+                }
+            }
+
+            // duplicate has its own position, so many threads can read at once
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position(index * RECORD_SIZE + 2);
+            buffer.get(puzzle);
+            buffer.get(solution);
+        }
+
+        /**
+         * Reads a record, which is not mapped (appended later, or after MAX_MAPPED_RECORDS), from the channel
+         * @param index
+         * @param puzzle
+         * @param solution
+         * @throws IOException
+         */
+        private void readUnmapped(int index, byte[] puzzle, byte[] solution) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+            long position = HEADER_SIZE + (long) index * RECORD_SIZE;
+            while(buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if(read < 0)
+                    throw new IOException("Record " + index + " in bank of level " + level + " is not complete");
+            }
+            buffer.position(2);
+            buffer.get(puzzle);
+            buffer.get(solution);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            }
+            finally {
+                hashes.close();
+            }
+        }
+    }
+}
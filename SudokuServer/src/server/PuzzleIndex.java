@@ -0,0 +1,86 @@
+package server;
+
+/**
+ * SudokuServer/server: PuzzleIndex.java
+ * Set of hashes of canonical forms of puzzles (see CanonicalForm), so that a puzzle, which is equivalent
+ * to a known one, is found without comparing it with the others.
+ *
+ * Hashes are kept in one long array with open addressing and linear probing, 8 bytes for each slot,
+ * instead of boxed Longs in a HashSet; the array is doubled when it is half full.
+ */
+class PuzzleIndex {
+    /**
+     * Marks an empty slot; hash 0 is stored as EMPTY_REPLACEMENT
+     */
+    private static final long EMPTY = 0;
+    private static final long EMPTY_REPLACEMENT = 1;
+
+    /**
+     * PuzzleIndex has:
+     *  - slots - hashes at their positions, EMPTY for empty slots; its length is a power of two
+     *  - size - number of stored hashes
+     */
+    private long[] slots;
+    private int size;
+
+    PuzzleIndex() {
+        this(1024);
+    }
+
+    PuzzleIndex(int expectedSize) {
+        slots = new long[Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1];
+    }
+
+    /**
+     * @param hash
+     * @return true, if the hash was not in the index and it is added now
+     */
+    synchronized boolean add(long hash) {
+        if(hash == EMPTY)
+            hash = EMPTY_REPLACEMENT;
+
+        int slot = find(slots, hash);
+        if(slots[slot] == hash)
+            return false;
+
+        slots[slot] = hash;
+        if(++size * 2 > slots.length)
+            grow();
+        return true;
+    }
+
+    synchronized boolean contains(long hash) {
+        if(hash == EMPTY)
+            hash = EMPTY_REPLACEMENT;
+
+        return slots[find(slots, hash)] == hash;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param slots
+     * @param hash
+     * @return slot with the hash, or the empty slot, where it should be added
+     */
+    private static int find(long[] slots, long hash) {
+        int mask = slots.length - 1;
+        // the hashes are mixed already, so their low bits can be used as they are
+        int slot = (int) hash & mask;
+        while(slots[slot] != EMPTY && slots[slot] != hash)
+            slot = (slot + 1) & mask;
+
+        return slot;
+    }
+
+    private void grow() {
+        long[] grown = new long[slots.length * 2];
+        for(long hash : slots) {
+            if(hash != EMPTY)
+                grown[find(grown, hash)] = hash;
+        }
+        slots = grown;
+    }
+}
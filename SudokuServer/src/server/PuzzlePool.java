@@ -0,0 +1,356 @@
+package server;
+
+import common.Board;
+import common.CanonicalForm;
+import common.LevelType;
+import common.SudokuGame;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SudokuServer/server: PuzzlePool.java
+ * Keeps puzzles of every difficulty level generated in advance, so that players do not wait for generating
+ */
+class PuzzlePool {
+    /**
+     * PuzzlePool has:
+     *  - ready - generated games for each level, waiting for a player
+     *  - returned - games for each level, which were taken for a batch, which failed; they have no size limit,
+     *    so that no finished game is lost, and they are taken before all other games
+     *  - pending - number of games for each level, which are being generated in the background
+     *  - lowWatermark - when less games than this are ready or pending, the pool is refilled
+     *  - highWatermark - the pool is refilled up to this number of games
+     *  - games - registry, in which a game is registered when it is given to a player
+     *  - generators - pool of threads, which generate the games
+     *  - bank - puzzles stored on disk; every generated game is stored there, and if no game is ready,
+     *    a stored one is served instead of generating it (null if the server runs without a bank)
+     *  - seeds - in transform mode, generated games of each level, from which equivalent puzzles are made
+     *    for players (SudokuGame.fromSeed); when there are seedCount seeds, no more games of the level are generated
+     *  - seedCount - number of seeds of each level; 0 if the pool is not in transform mode
+     *  - generatedPuzzles - hashes of canonical forms of generated puzzles, if the server runs without a bank
+     *    (else the bank keeps them); a generated puzzle, which is equivalent to an earlier one, is not served
+     *    from the pool
+     */
+    static final String LOW_PROPERTY = "sudoku.pool.low";
+    static final String HIGH_PROPERTY = "sudoku.pool.high";
+    static final String TRANSFORM_PROPERTY = "sudoku.pool.transform";
+    static final String SEEDS_PROPERTY = "sudoku.pool.seeds";
+
+    private final Map<LevelType, BlockingQueue<SudokuGame>> ready;
+    private final Map<LevelType, Queue<SudokuGame>> returned;
+    private final Map<LevelType, AtomicInteger> pending;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final GameRegistry games;
+    private final GeneratorPool generators;
+    private final PuzzleBank bank;
+    private final Map<LevelType, List<SudokuGame>> seeds;
+    private final int seedCount;
+    private final PuzzleIndex generatedPuzzles;
+
+    PuzzlePool(GameRegistry games, GeneratorPool generators, PuzzleBank bank) {
+        this(games, generators, bank, Integer.getInteger(LOW_PROPERTY, 2), Integer.getInteger(HIGH_PROPERTY, 8),
+                Boolean.getBoolean(TRANSFORM_PROPERTY) ? Integer.getInteger(SEEDS_PROPERTY, 16) : 0);
+    }
+
+    PuzzlePool(GameRegistry games, GeneratorPool generators, PuzzleBank bank, int lowWatermark, int highWatermark,
+               int seedCount) {
+        this.games = games;
+        this.generators = generators;
+        this.bank = bank;
+        this.highWatermark = Math.max(1, highWatermark);
+        this.lowWatermark = Math.max(1, Math.min(lowWatermark, this.highWatermark));
+        this.seedCount = Math.max(0, seedCount);
+        generatedPuzzles = bank == null ? new PuzzleIndex() : null;
+
+        ready = new EnumMap<>(LevelType.class);
+        returned = new EnumMap<>(LevelType.class);
+        pending = new EnumMap<>(LevelType.class);
+        seeds = new EnumMap<>(LevelType.class);
+        for(LevelType level : LevelType.values()) {
+            ready.put(level, new ArrayBlockingQueue<>(this.highWatermark));
+            returned.put(level, new ConcurrentLinkedQueue<>());
+            pending.put(level, new AtomicInteger());
+            seeds.put(level, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    /**
+     * Starts filling the pool of every level; in transform mode, puzzles stored in the bank are used as seeds first
+     */
+    void start() {
+        for(LevelType level : LevelType.values()) {
+            if(seedCount > 0 && seeds.get(level).isEmpty())
+                loadSeeds(level);
+            fill(level);
+        }
+    }
+
+    /**
+     * Reads the last stored puzzles of the level from the bank as seeds
+     * @param level
+     */
+    private void loadSeeds(LevelType level) {
+        if(bank == null)
+            return;
+
+        try {
+            int size = bank.size(level);
+            for(int index = size - 1; index >= Math.max(0, size - seedCount); index--)
+                addSeed(bank.read(level, index, 0));
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+            System.out.println("Error in reading seeds from puzzle bank.");
+        }
+    }
+
+    /**
+     * @param game generated game
+     * @return true, if the pool is in transform mode and the game is added to the seeds of its level
+     */
+    private boolean addSeed(SudokuGame game) {
+        List<SudokuGame> levelSeeds = seeds.get(game.getLevel());
+        if(levelSeeds.size() >= seedCount)
+            return false;
+
+        synchronized(levelSeeds) {
+            if(levelSeeds.size() >= seedCount)
+                return false;
+            levelSeeds.add(game);
+            return true;
+        }
+    }
+
+    /**
+     * @param level
+     * @return true, if the level has all its seeds, so no more games of it are generated
+     */
+    private boolean isSeeded(LevelType level) {
+        return seedCount > 0 && seeds.get(level).size() >= seedCount;
+    }
+
+    /**
+     * @param level
+     * @return new game with a random transformation of a random seed of the level, or null if it has no seeds
+     */
+    private SudokuGame takeTransformed(LevelType level) {
+        List<SudokuGame> levelSeeds = seeds.get(level);
+        if(levelSeeds.isEmpty())
+            return null;
+
+        SudokuGame seed = levelSeeds.get(ThreadLocalRandom.current().nextInt(levelSeeds.size()));
+        return SudokuGame.fromSeed(games.nextId(), seed);
+    }
+
+    /**
+     * Takes a ready game of given level and registers it; if none is ready, a game from the bank is taken,
+     * and if the bank is empty too, the game is generated now.
+     * Games returned by a failed batch are taken before all of them, and in transform mode, a transformed seed
+     * is taken next
+     * @param level difficulty level of the game
+     * @return registered SudokuGame with generated puzzle
+     * @throws RemoteException if generating failed
+     */
+    SudokuGame take(LevelType level) throws RemoteException {
+        SudokuGame game = returned.get(level).poll();
+
+        if(game == null)
+            game = takeTransformed(level);
+
+        if(game == null)
+            game = ready.get(level).poll();
+
+        if(game == null)
+            game = takeFromBank(level);
+
+        if(game == null) {
+            game = new SudokuGame(games.nextId());
+            generators.generate(game, level);
+            // the player is waiting, so a repeated puzzle is served anyway, it is only not stored
+            if(store(game))
+                addSeed(game);
+        }
+        // registered only when it is ready, so that the player cannot use it before it is generated
+        games.register(game);
+
+        refill(level);
+        return game;
+    }
+
+    /**
+     * Takes many games of given level at once: ready games first, then games from the bank,
+     * and the rest are generated in parallel by the generators.
+     * Games are registered only when all of them are ready; if generating of any game fails, no game is registered,
+     * and the taken and generated games are put back to the pool (to the returned games, if they do not fit)
+     * @param level difficulty level of the games
+     * @param count number of games
+     * @return registered SudokuGame objects with generated puzzles
+     * @throws RemoteException if generating failed
+     */
+    List<SudokuGame> take(LevelType level, int count) throws RemoteException {
+        List<SudokuGame> taken = new ArrayList<>(count);
+        Queue<SudokuGame> returnedGames = returned.get(level);
+        for(SudokuGame game; taken.size() < count && (game = returnedGames.poll()) != null; )
+            taken.add(game);
+        for(SudokuGame game; taken.size() < count && (game = takeTransformed(level)) != null; )
+            taken.add(game);
+        ready.get(level).drainTo(taken, count - taken.size());
+
+        while(taken.size() < count) {
+            SudokuGame game = takeFromBank(level);
+            if(game == null)
+                break;
+            taken.add(game);
+        }
+
+        // games, which are not ready anywhere, are generated at once, while the ones generated first are stored
+        List<SudokuGame> generated = new ArrayList<>(count - taken.size());
+        List<Future<Board>> futures = new ArrayList<>(count - taken.size());
+        while(taken.size() + generated.size() < count) {
+            SudokuGame game = new SudokuGame(games.nextId());
+            generated.add(game);
+            futures.add(generators.submit(game, level));
+        }
+
+        RemoteException error = null;
+        for(int i = 0; i < generated.size(); i++) {
+            SudokuGame game = generated.get(i);
+            try {
+                GeneratorPool.await(futures.get(i));
+            }
+            catch(RemoteException e) {
+                error = e;
+                continue;
+            }
+            if(store(game))
+                addSeed(game);
+            taken.add(game);
+        }
+
+        if(error != null) {
+            // finished games are not lost, they wait for the next player in the pool, or in the returned games,
+            // which have no size limit, if the pool is full
+            BlockingQueue<SudokuGame> queue = ready.get(level);
+            for(SudokuGame game : taken) {
+                if(!queue.offer(game))
+                    returnedGames.add(game);
+            }
+            throw error;
+        }
+
+        taken.forEach(games::register);
+        refill(level);
+        return taken;
+    }
+
+    /**
+     * @param level
+     * @return game with random puzzle from the bank, or null if there is none
+     */
+    private SudokuGame takeFromBank(LevelType level) {
+        if(bank == null)
+            return null;
+
+        try {
+            return bank.random(level, games.nextId());
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+            System.out.println("Error in reading from puzzle bank.");
+            return null;
+        }
+    }
+
+    /**
+     * Stores generated game in the bank, so that its puzzle can be served again later
+     * @param game
+     * @return false, if the puzzle is equivalent to an earlier generated one
+     */
+    private boolean store(SudokuGame game) {
+        if(bank == null)
+            return generatedPuzzles.add(CanonicalForm.hash(game.getPackedPuzzle()));
+
+        try {
+            return bank.append(game);
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+            System.out.println("Error in writing to puzzle bank.");
+            return true;
+        }
+    }
+
+    /**
+     * If the number of ready and pending games of the level has dropped under the low watermark,
+     * starts generating games in the background, until high watermark is reached
+     * @param level
+     */
+    void refill(LevelType level) {
+        if(ready.get(level).size() + pending.get(level).get() < lowWatermark)
+            fill(level);
+    }
+
+    /**
+     * Starts generating games of the level in the background, until high watermark is reached.
+     * Every finished game continues filling all levels, so games which did not fit in the generators' queue
+     * are generated later. In transform mode, filling stops, when the level has all its seeds
+     * @param level
+     */
+    private void fill(LevelType level) {
+        if(isSeeded(level))
+            return;
+
+        AtomicInteger pendingGames = pending.get(level);
+        BlockingQueue<SudokuGame> queue = ready.get(level);
+
+        while(true) {
+            int inProgress = pendingGames.get();
+            if(queue.size() + inProgress >= highWatermark)
+                return;
+            if(!pendingGames.compareAndSet(inProgress, inProgress + 1))
+                continue;
+
+            SudokuGame game = new SudokuGame(games.nextId());
+            boolean accepted = generators.trySubmit(() -> {
+                try {
+                    game.generateGame(level);
+                    // a repeated puzzle is dropped, and filling goes on with the next game
+                    if(store(game) && !addSeed(game))
+                        queue.offer(game);
+                }
+                finally {
+                    pendingGames.decrementAndGet();
+                }
+                start();
+            });
+
+            if(!accepted) {
+                // generators are busy, so filling continues when one of pending games is finished
+                pendingGames.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param level
+     * @return number of games of the level, which are ready for players
+     */
+    int size(LevelType level) {
+        return ready.get(level).size();
+    }
+}
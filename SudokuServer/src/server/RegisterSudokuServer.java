@@ -2,6 +2,7 @@ package server;
 
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
 
 /**
  * SudokuServer/server: RegisterSudokuServer.java
@@ -10,10 +11,22 @@ import java.rmi.registry.Registry;
 public class RegisterSudokuServer {
      public static void main(String[] args) {
          try {
-             SudokuServerInterface server = new SudokuServer();
+             SudokuServer server = new SudokuServer();
              Registry registry = LocateRegistry.createRegistry(1099);
              registry.rebind("sudoku", server);
 
+             // on exit, no more calls are accepted and queued statistics are written before the files are closed
+             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                 try {
+                     UnicastRemoteObject.unexportObject(server, true);
+                 }
+                 catch(Exception e) {
+                     System.out.println("ERROR " + e);
+                 }
+                 server.shutdown();
+                 System.out.println("Server is shut down.");
+             }, "sudoku-shutdown"));
+
              System.out.println("Server " + server + " is registered successfully.");
 
          }
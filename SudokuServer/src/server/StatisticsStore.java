@@ -0,0 +1,365 @@
+package server;
+
+import common.GameOutcome;
+import common.LevelType;
+import common.User;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * SudokuServer/server: StatisticsStore.java
+ * Stores statistics of users in an append-only binary file
+ *
+ * The file has a header and fixed-width records, one for every recorded User:
+ *  - header (16 bytes): magic "SDKS", version (short), reserved bytes
+ *  - record (72 bytes): username (length byte and up to 31 bytes of UTF-8), time of recording (long),
+ *    total time played (long), number of games of each level (int each), number of games of each outcome
+ *    (int each), CRC32 of the record (int)
+ * Recorded statistics are put in a bounded lock-free queue, so that recording does not wait for the disk.
+ * One writer thread takes all waiting statistics at once, sums up the ones of the same user into one record,
+ * and writes and forces them to disk together (group commit), through a channel, which is opened
+ * for the whole life of the store. Then it passes the written sums to a listener, so that totals in memory
+ * contain only statistics, which are on disk.
+ */
+class StatisticsStore implements Closeable {
+    static final String FILE_PROPERTY = "sudoku.statistics.file";
+    static final String QUEUE_PROPERTY = "sudoku.statistics.queue";
+
+    static final int MAGIC = 0x53444B53;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int NAME_SIZE = User.MAX_USERNAME_BYTES + 1;
+    static final int RECORD_SIZE = NAME_SIZE + 8 + 8
+            + 4 * LevelType.values().length + 4 * GameOutcome.values().length + 4;
+
+    /**
+     * StatisticsStore has:
+     *  - channel - opened for the whole life of the store
+     *  - position - where the next record is written; changed only by the writer
+     *  - queue - statistics, which wait for the writer
+     *  - queued - number of statistics, which have a place in the queue and are not written yet;
+     *    it is not allowed to be more than capacity. Its bit CLOSED is set, when no more statistics are accepted,
+     *    so a place cannot be taken after closing, and the writer stops only when all taken places are written
+     *  - capacity - when the queue is full, recording waits a while for the writer (backpressure)
+     *  - writer - thread, which writes the queued statistics and forces them to disk
+     *  - written - gets the sum of each user, when it is forced to disk; called by the writer
+     */
+    private static final long FULL_QUEUE_WAIT_MILLIS = 1000;
+    private static final long RETRY_MILLIS = 1000;
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    private final FileChannel channel;
+    private long position;
+    private final ConcurrentLinkedQueue<User> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int capacity;
+    private final Thread writer;
+    private final Consumer<User> written;
+
+    StatisticsStore(Consumer<User> written) throws IOException {
+        this(new File(System.getProperty(FILE_PROPERTY, "statistics.dat")), Integer.getInteger(QUEUE_PROPERTY, 4096),
+                written);
+    }
+
+    StatisticsStore(File file, int capacity, Consumer<User> written) throws IOException {
+        this.capacity = Math.max(1, capacity);
+        this.written = written;
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            if(channel.size() < HEADER_SIZE)
+                writeHeader();
+            else
+                checkHeader(file);
+        }
+        catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        // a record, which was not written completely, is overwritten by the next one
+        position = HEADER_SIZE + (channel.size() - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+
+        writer = new Thread(this::writeQueued, "sudoku-statistics-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION);
+        header.rewind();
+        channel.write(header, 0);
+        channel.force(true);
+    }
+
+    private void checkHeader(File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+
+        if(header.getInt() != MAGIC || header.getShort() != VERSION)
+            throw new IOException("File " + file + " is not a statistics file");
+    }
+
+    /**
+     * Reads all records, which are written in the file; records with wrong CRC are skipped
+     * @param consumer gets statistics of each record, in the order in which they were recorded
+     * @throws IOException
+     */
+    void forEach(Consumer<User> consumer) throws IOException {
+        long end;
+        synchronized(this) {
+            end = position;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+        long next = HEADER_SIZE;
+        int skipped = 0;
+
+        while(next < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - next));
+            while(buffer.hasRemaining()) {
+                int read = channel.read(buffer, next + buffer.position());
+                if(read < 0)
+                    throw new IOException("Statistics file is shorter than expected");
+            }
+            buffer.flip();
+
+            while(buffer.remaining() >= RECORD_SIZE) {
+                ByteBuffer record = buffer.slice();
+                record.limit(RECORD_SIZE);
+                buffer.position(buffer.position() + RECORD_SIZE);
+
+                User user = decode(record);
+                if(user != null)
+                    consumer.accept(user);
+                else
+                    skipped++;
+            }
+            next += buffer.limit();
+        }
+
+        if(skipped > 0)
+            System.out.println(skipped + " damaged statistics record(s) are skipped.");
+    }
+
+    /**
+     * Puts statistics of the user in the queue, without waiting for the disk; if the queue is full,
+     * waits a while for the writer to make place
+     * @param user
+     * @throws IOException if the queue stays full, or the store is closed
+     * @throws IllegalArgumentException if the username does not fit in a record (User.isRecordableUsername)
+     */
+    void record(User user) throws IOException {
+        // a cut username would be read as another user after restart
+        if(!User.isRecordableUsername(user.getUsername()))
+            throw new IllegalArgumentException("Username is longer than " + User.MAX_USERNAME_BYTES + " bytes");
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FULL_QUEUE_WAIT_MILLIS);
+        while(!reservePlace()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+
+            if(System.nanoTime() > deadline)
+                throw new IOException("Statistics queue is full");
+        }
+
+        queue.offer(new User(user));
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * @return true, if the queue had place for one more statistics
+     * @throws IOException if the store is closed
+     */
+    private boolean reservePlace() throws IOException {
+        while(true) {
+            int state = queued.get();
+            if((state & CLOSED) != 0)
+                throw new IOException("Statistics store is closed");
+            if(state >= capacity)
+                return false;
+            if(queued.compareAndSet(state, state + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Work of the writer: takes all queued statistics at once, sums up the ones of the same user,
+     * writes them and forces them to disk, and passes the sums to the listener; if writing fails,
+     * it is tried again later
+     */
+    private void writeQueued() {
+        Map<String, User> batch = new LinkedHashMap<>();
+        int taken = 0;
+
+        while(true) {
+            User user;
+            while((user = queue.poll()) != null) {
+                batch.merge(user.getUsername(), user, UserStatistics::sum);
+                taken++;
+            }
+
+            if(batch.isEmpty()) {
+                // closed, and every taken place is written; a place taken before closing is waited for
+                if(queued.get() == CLOSED)
+                    return;
+
+                LockSupport.park(this);
+                continue;
+            }
+
+            long time = System.currentTimeMillis();
+            List<ByteBuffer> records = new ArrayList<>(batch.size());
+            batch.values().forEach(sum -> records.add(encode(sum, time)));
+
+            try {
+                write(records);
+                batch.values().forEach(written);
+                queued.addAndGet(-taken);
+                batch.clear();
+                taken = 0;
+            }
+            catch(IOException e) {
+                e.printStackTrace();
+                System.out.println("Error in writing statistics; it is tried again.");
+
+                // while the disk fails, the queue fills up and recording waits
+                if((queued.get() & CLOSED) != 0)
+                    return;
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS));
+            }
+        }
+    }
+
+    /**
+     * @param records
+     * @throws IOException
+     */
+    private void write(List<ByteBuffer> records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(records.size() * RECORD_SIZE);
+        for(ByteBuffer record : records)
+            buffer.put(record);
+        buffer.flip();
+
+        long next = position;
+        while(buffer.hasRemaining())
+            next += channel.write(buffer, next);
+        channel.force(false);
+
+        // position moves only when the whole batch is on disk, so a failed batch is overwritten by the next one
+        synchronized(this) {
+            position = next;
+        }
+    }
+
+    /**
+     * @param user
+     * @param time time of recording in milliseconds
+     * @return record with statistics of the user, ready to be written
+     */
+    static ByteBuffer encode(User user, long time) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+        byte[] name = user.getUsername().getBytes(StandardCharsets.UTF_8);
+        if(name.length > NAME_SIZE - 1)
+            throw new IllegalArgumentException("Username is longer than " + (NAME_SIZE - 1) + " bytes");
+        record.put((byte) name.length).put(name);
+        record.position(NAME_SIZE);
+
+        record.putLong(time).putLong(user.getTotalTimePlayed());
+
+        Map<LevelType, Integer> levels = user.getDifficultyLevelsPlayed();
+        for(LevelType level : LevelType.values())
+            record.putInt(levels.getOrDefault(level, 0));
+
+        Map<GameOutcome, Integer> outcomes = user.getGameOutcomesStats();
+        for(GameOutcome outcome : GameOutcome.values())
+            record.putInt(outcomes.getOrDefault(outcome, 0));
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+
+        record.flip();
+        return record;
+    }
+
+    /**
+     * @param record RECORD_SIZE bytes of a record
+     * @return User with the statistics of the record, or null if its CRC is wrong
+     */
+    static User decode(ByteBuffer record) {
+        byte[] bytes = new byte[RECORD_SIZE];
+        record.get(bytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, RECORD_SIZE - 4);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if(buffer.getInt(RECORD_SIZE - 4) != (int) crc.getValue())
+            return null;
+
+        int nameLength = Math.min(bytes[0] & 0xFF, NAME_SIZE - 1);
+        String username = new String(bytes, 1, nameLength, StandardCharsets.UTF_8);
+
+        buffer.position(NAME_SIZE + 8);
+        long totalTimePlayed = buffer.getLong();
+
+        Map<LevelType, Integer> levels = new EnumMap<>(LevelType.class);
+        for(LevelType level : LevelType.values()) {
+            int games = buffer.getInt();
+            if(games > 0)
+                levels.put(level, games);
+        }
+
+        Map<GameOutcome, Integer> outcomes = new EnumMap<>(GameOutcome.class);
+        for(GameOutcome outcome : GameOutcome.values()) {
+            int games = buffer.getInt();
+            if(games > 0)
+                outcomes.put(outcome, games);
+        }
+
+        return new User(username, levels, totalTimePlayed, outcomes);
+    }
+
+    /**
+     * Stops accepting statistics, writes the queued ones and closes the file
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        queued.getAndUpdate(state -> state | CLOSED);
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(writer.isAlive())
+            System.out.println("Not all statistics are written before closing.");
+
+        channel.close();
+    }
+}
@@ -1,15 +1,15 @@
 package server;
 
 import common.Board;
+import common.LeaderboardEntry;
 import common.LevelType;
 import common.SudokuGame;
 import common.User;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * SudokuServer/server: SudokuServer.java
@@ -18,68 +18,286 @@ import java.rmi.server.UnicastRemoteObject;
 public class SudokuServer extends UnicastRemoteObject implements SudokuServerInterface {
     /**
      * SudokuServer has:
-     *  - SudokuGame object, which implements the logic behind a game of Sudoku
+     *  - games - registry of SudokuGame objects, one for each generated puzzle, found by the game id
+     *  - generators - pool of threads, which generate puzzles of many players at once
+     *  - puzzles - puzzles of every level, generated in advance by the generators
+     *  - bank - puzzles stored on disk, served when no generated puzzle is ready (null if it cannot be opened)
+     *  - maxBatch - the most puzzles, which are given in one call of generateSudokuBatch
+     *  - statistics - binary file, in which statistics of users are recorded (null if it cannot be opened)
+     *  - userStatistics - statistics of every user summed up in memory, read from the file on start
+     *  - leaderboard - fastest solved games of every level
      */
-    private SudokuGame game;
+    static final String MAX_BATCH_PROPERTY = "sudoku.batch.max";
+
+    private GameRegistry games;
+    private GeneratorPool generators;
+    private PuzzleBank bank;
+    private PuzzlePool puzzles;
+    private int maxBatch;
+    private StatisticsStore statistics;
+    private UserStatistics userStatistics;
+    private Leaderboard leaderboard;
 
     public SudokuServer() throws RemoteException {
-        game = new SudokuGame();
+        games = new GameRegistry();
+        generators = new GeneratorPool();
+        bank = openBank();
+        puzzles = new PuzzlePool(games, generators, bank);
+        puzzles.start();
+        maxBatch = Math.max(1, Integer.getInteger(MAX_BATCH_PROPERTY, 32));
+        userStatistics = new UserStatistics();
+        statistics = openStatistics(userStatistics);
+        loadStatistics(statistics, userStatistics);
+        leaderboard = new Leaderboard();
+    }
+
+    /**
+     * @return PuzzleBank in the directory set by sudoku.bank.dir, or null if it cannot be opened
+     */
+    private static PuzzleBank openBank() {
+        try {
+            return new PuzzleBank();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Error in opening puzzle bank; puzzles will not be stored.");
+            return null;
+        }
+    }
+
+    /**
+     * @param userStatistics totals in memory, to which statistics are added, when they are on disk
+     * @return StatisticsStore in the file set by sudoku.statistics.file, or null if it cannot be opened
+     */
+    private static StatisticsStore openStatistics(UserStatistics userStatistics) {
+        try {
+            return new StatisticsStore(userStatistics::add);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Error in opening statistics file; statistics will not be recorded.");
+            return null;
+        }
+    }
+
+    /**
+     * Adds the sums of all records in the store to the totals in memory
+     * @param statistics opened StatisticsStore, or null
+     * @param userStatistics
+     */
+    private static void loadStatistics(StatisticsStore statistics, UserStatistics userStatistics) {
+        if(statistics == null)
+            return;
+
+        try {
+            statistics.forEach(userStatistics::add);
+            System.out.println("Statistics of " + userStatistics.size() + " user(s) are loaded.");
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Error in reading statistics file.");
+        }
     }
 
     /**
      * Generate a new game of Sudoku
      * @param level Difficulty level of the new game
-     * @return Board object with valid Sudoku puzzle
+     * @return Board object with valid Sudoku puzzle; its game id is used for checking it later
+     * @throws RemoteException
+     */
+    @Override
+    public Board generateSudoku(LevelType level) throws RemoteException {
+        return puzzles.take(level).getBoard();
+    }
+
+    /**
+     * Generates many games of Sudoku in one call, e.g. for playing offline or for rounds of a tournament
+     * @param level Difficulty level of the new games
+     * @param count number of games; not more than the limit set by sudoku.batch.max are returned
+     * @return Board objects with valid Sudoku puzzles, each with its own game id; empty if count is not positive
      * @throws RemoteException
      */
     @Override
-    public Board generateSudoku(LevelType level) {
-        return game.generateGame(level);
+    public Board[] generateSudokuBatch(LevelType level, int count) throws RemoteException {
+        if(count <= 0)
+            return new Board[0];
+
+        List<SudokuGame> batch = puzzles.take(level, Math.min(count, maxBatch));
+        Board[] boards = new Board[batch.size()];
+        for(int i = 0; i < boards.length; i++)
+            boards[i] = batch.get(i).getBoard();
+
+        return boards;
     }
 
     /**
      * Checks if board is containing a correct solution
+     * @param gameId id of the game, to which the board belongs
      * @param board to be checked
-     * @return true, if board has the correct solution
+     * @return true, if board has the correct solution; false, if it has not or the game does not exist
      * @throws RemoteException
      */
     @Override
-    public boolean isSolution(Board board) {
-        Board correctBoard = game.getSolution();
-        return correctBoard.equals(board);
+    public boolean isSolution(long gameId, Board board) {
+        SudokuGame game = games.get(gameId);
+        if(game == null)
+            return false;
+
+        return game.isSolution(board);
+    }
+
+    /**
+     * Checks if packed values are the correct solution, without sending the whole Board
+     * @param gameId id of the game, to which the answer belongs
+     * @param packedAnswer values of all cells, packed by PackedDigits (Board.pack())
+     * @return true, if the answer is the correct solution; false, if it is not or the game does not exist
+     * @throws RemoteException
+     */
+    @Override
+    public boolean isSolution(long gameId, byte[] packedAnswer) {
+        SudokuGame game = games.get(gameId);
+        if(game == null)
+            return false;
+
+        return game.isSolution(packedAnswer);
     }
 
     /**
-     * Passes the correct solution of puzzle, in case user could not solve it
-     * @return Board object with correct solution
+     * Passes the correct solution of puzzle, in case user could not solve it;
+     * time of solving the game cannot be recorded in the leaderboard after that
+     * @param gameId id of the game
+     * @return Board object with correct solution, or null if the game does not exist
      * @throws RemoteException
      */
     @Override
-    public Board showSolution() {
+    public Board showSolution(long gameId) {
+        SudokuGame game = games.get(gameId);
+        if(game == null)
+            return null;
+
+        game.markTimeRecorded();
         return game.getSolution();
     }
 
     /**
-     * Records statistics about a User in a file
+     * Records statistics about a User in a file; they are queued and written in the background,
+     * so the call does not wait for the disk; getStatistics includes them, when they are on disk.
+     * Statistics of a username longer than User.MAX_USERNAME_BYTES are not recorded
      * @param user
      * @throws RemoteException
      */
     @Override
     public void recordStatistics(User user) {
+        if(statistics == null || user == null) {
+            System.out.println("Error in trying to record statistics.");
+            return;
+        }
+
         try {
-            File statsFile = new File("statistics.txt");
-            if(!statsFile.exists())
-                statsFile.createNewFile();
+            // totals in memory are updated by the writer, when the statistics are on disk
+            statistics.record(user);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Error in trying to record statistics.");
+        }
+    }
 
-            BufferedWriter writer = new BufferedWriter(new FileWriter(statsFile, true));
-            writer.write(String.format("%s%n", user));
-            System.out.println("Successfully written in file.");
+    /**
+     * Gives recorded statistics of a user, summed up over all recorded sessions
+     * @param username
+     * @return User with the statistics, or null if the user has no recorded statistics
+     * @throws RemoteException
+     */
+    @Override
+    public User getStatistics(String username) {
+        return userStatistics.get(username);
+    }
 
-            writer.close();
+    /**
+     * Gives recorded statistics of all users, summed up over all recorded sessions
+     * @return list with a User for each username
+     * @throws RemoteException
+     */
+    @Override
+    public List<User> getAllStatistics() {
+        return userStatistics.getAll();
+    }
+
+    /**
+     * Starts measuring the time of solving a game; called when the player opens the game, as games can be requested
+     * in advance or in a batch. Only the first call starts it
+     * @param gameId id of the game
+     * @return false, if the game does not exist
+     * @throws RemoteException
+     */
+    @Override
+    public boolean startGame(long gameId) {
+        return games.start(gameId);
+    }
+
+    /**
+     * Records the time, in which a game was solved, in the leaderboard of its level.
+     * The answer is checked, and the time is measured from when the game was started, not sent by the client;
+     * a game, which was not started, is not recorded, and neither is a username, which is not recordable
+     * in the statistics (see User.isRecordableUsername);
+     * the time of each game is recorded only once, and not at all, if its solution was shown
+     * @param gameId id of the solved game
+     * @param username who solved the game
+     * @param packedAnswer values of all cells, packed by PackedDigits (Board.pack())
+     * @return true, if the time is one of the fastest of the level
+     * @throws RemoteException
+     */
+    @Override
+    public boolean submitTime(long gameId, String username, byte[] packedAnswer) {
+        if(!User.isRecordableUsername(username))
+            return false;
+
+        long milliseconds = games.elapsed(gameId);
+        SudokuGame game = games.get(gameId);
+        if(game == null || milliseconds < 0 || !game.isSolution(packedAnswer) || !game.markTimeRecorded())
+            return false;
+
+        return leaderboard.submit(new LeaderboardEntry(username, game.getLevel(), milliseconds, gameId));
+    }
+
+    /**
+     * Gives the fastest solved games of a level
+     * @param level
+     * @return entries from the fastest
+     * @throws RemoteException
+     */
+    @Override
+    public List<LeaderboardEntry> getLeaderboard(LevelType level) {
+        if(level == null)
+            return new ArrayList<>();
+
+        return leaderboard.top(level);
+    }
+
+    /**
+     * Stops generating puzzles, writes the queued statistics and closes the files
+     */
+    void shutdown() {
+        generators.shutdown();
+        games.shutdown();
+
+        try {
+            if(statistics != null)
+                statistics.close();
         }
         catch (Exception e) {
             e.printStackTrace();
-            System.out.println("Error in trying to record statistics.");
+            System.out.println("Error in closing statistics file.");
+        }
+
+        try {
+            if(bank != null)
+                bank.close();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Error in closing puzzle bank.");
         }
     }
 }
@@ -1,10 +1,12 @@
 package server;
 
 import common.Board;
+import common.LeaderboardEntry;
 import common.LevelType;
 import common.User;
 
 import java.rmi.*;
+import java.util.List;
 
 /**
  * SudokuServer/server: SudokuServerInterface.java
@@ -14,25 +16,45 @@ public interface SudokuServerInterface extends Remote {
     /**
      * Generate a new game of Sudoku
      * @param level Difficulty level of the new game
-     * @return Board object with valid Sudoku puzzle
+     * @return Board object with valid Sudoku puzzle; its game id is used for checking it later
      * @throws RemoteException
      */
     public Board generateSudoku(LevelType level) throws RemoteException;
 
+    /**
+     * Generates many games of Sudoku in one call, e.g. for playing offline or for rounds of a tournament
+     * @param level Difficulty level of the new games
+     * @param count number of games; not more than the limit set by the server are returned
+     * @return Board objects with valid Sudoku puzzles, each with its own game id; empty if count is not positive
+     * @throws RemoteException
+     */
+    public Board[] generateSudokuBatch(LevelType level, int count) throws RemoteException;
+
     /**
      * Checks if board is containing a correct solution
+     * @param gameId id of the game, to which the board belongs
      * @param board to be checked
-     * @return true, if board has the correct solution
+     * @return true, if board has the correct solution; false, if it has not or the game does not exist
+     * @throws RemoteException
+     */
+    public boolean isSolution(long gameId, Board board) throws RemoteException;
+
+    /**
+     * Checks if packed values are the correct solution, without sending the whole Board
+     * @param gameId id of the game, to which the answer belongs
+     * @param packedAnswer values of all cells, packed by PackedDigits (Board.pack())
+     * @return true, if the answer is the correct solution; false, if it is not or the game does not exist
      * @throws RemoteException
      */
-    public boolean isSolution(Board board) throws RemoteException;
+    public boolean isSolution(long gameId, byte[] packedAnswer) throws RemoteException;
 
     /**
      * Passes the correct solution of puzzle, in case user could not solve it
-     * @return Board object with correct solution
+     * @param gameId id of the game
+     * @return Board object with correct solution, or null if the game does not exist
      * @throws RemoteException
      */
-    public Board showSolution() throws RemoteException;
+    public Board showSolution(long gameId) throws RemoteException;
 
     /**
      * Records statistics about a User in a file
@@ -40,4 +62,49 @@ public interface SudokuServerInterface extends Remote {
      * @throws RemoteException
      */
     public void recordStatistics(User user) throws RemoteException;
+
+    /**
+     * Gives recorded statistics of a user, summed up over all recorded sessions
+     * @param username
+     * @return User with the statistics, or null if the user has no recorded statistics
+     * @throws RemoteException
+     */
+    public User getStatistics(String username) throws RemoteException;
+
+    /**
+     * Gives recorded statistics of all users, summed up over all recorded sessions
+     * @return list with a User for each username
+     * @throws RemoteException
+     */
+    public List<User> getAllStatistics() throws RemoteException;
+
+    /**
+     * Starts measuring the time of solving a game; called when the player opens the game, as games can be requested
+     * in advance or in a batch. Only the first call starts it
+     * @param gameId id of the game
+     * @return false, if the game does not exist
+     * @throws RemoteException
+     */
+    public boolean startGame(long gameId) throws RemoteException;
+
+    /**
+     * Records the time, in which a game was solved, in the leaderboard of its level.
+     * The answer is checked, and the time is measured by the server from when the game was started (startGame);
+     * the time of each game is recorded only once, and not at all, if its solution was shown
+     * @param gameId id of the solved game
+     * @param username who solved the game; the time is not recorded, if the username is longer than
+     *                 User.MAX_USERNAME_BYTES bytes
+     * @param packedAnswer values of all cells, packed by PackedDigits (Board.pack())
+     * @return true, if the time is one of the fastest of the level
+     * @throws RemoteException
+     */
+    public boolean submitTime(long gameId, String username, byte[] packedAnswer) throws RemoteException;
+
+    /**
+     * Gives the fastest solved games of a level
+     * @param level
+     * @return entries from the fastest
+     * @throws RemoteException
+     */
+    public List<LeaderboardEntry> getLeaderboard(LevelType level) throws RemoteException;
 }
@@ -0,0 +1,75 @@
+package server;
+
+import common.GameOutcome;
+import common.LevelType;
+import common.User;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SudokuServer/server: UserStatistics.java
+ * Keeps statistics of every user summed up in memory, so that they can be read without scanning the file
+ */
+class UserStatistics {
+    /**
+     * UserStatistics has:
+     *  - users - summed statistics of each username; a User in the map is never changed,
+     *    it is replaced by a new one, so it can be read by many threads without locking
+     */
+    private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+
+    /**
+     * Adds statistics of one recorded session to the sums of its user
+     * @param session statistics, which are recorded
+     */
+    void add(User session) {
+        users.merge(session.getUsername(), new User(session), UserStatistics::sum);
+    }
+
+    /**
+     * @param username
+     * @return summed statistics of the user, or null if the user has no recorded statistics
+     */
+    User get(String username) {
+        if(username == null)
+            return null;
+
+        User user = users.get(username);
+        return user != null ? new User(user) : null;
+    }
+
+    /**
+     * @return summed statistics of all users
+     */
+    List<User> getAll() {
+        List<User> all = new ArrayList<>(users.size());
+        users.values().forEach(user -> all.add(new User(user)));
+        return all;
+    }
+
+    int size() {
+        return users.size();
+    }
+
+    /**
+     * @param first
+     * @param second
+     * @return new User with statistics of both users summed up
+     */
+    static User sum(User first, User second) {
+        Map<LevelType, Integer> levels = new EnumMap<>(LevelType.class);
+        levels.putAll(first.getDifficultyLevelsPlayed());
+        second.getDifficultyLevelsPlayed().forEach((level, games) -> levels.merge(level, games, Integer::sum));
+
+        Map<GameOutcome, Integer> outcomes = new EnumMap<>(GameOutcome.class);
+        outcomes.putAll(first.getGameOutcomesStats());
+        second.getGameOutcomesStats().forEach((outcome, games) -> outcomes.merge(outcome, games, Integer::sum));
+
+        return new User(first.getUsername(), levels,
+                first.getTotalTimePlayed() + second.getTotalTimePlayed(), outcomes);
+    }
+}